@@ -6,6 +6,9 @@ plugins {
 
     // Adds support for generating .class files from ProtoBuf straight from gradle.
     id("com.google.protobuf") version "0.8.18"
+
+    // Adds the "jmh" source set & task for running microbenchmarks.
+    id("me.champeau.jmh") version "0.6.6"
 }
 
 group = "com.github.ooze"
@@ -49,4 +52,14 @@ tasks.withType<JavaCompile> {
 
 tasks.test {
     useJUnitPlatform()
+}
+
+jmh {
+    jmhVersion.set("1.34")
+
+    // Report allocation rates alongside timings.
+    profilers.add("gc")
+    humanOutputFile.set(project.file("${project.buildDir}/reports/jmh/human.txt"))
+    resultsFile.set(project.file("${project.buildDir}/reports/jmh/results.json"))
+    resultFormat.set("JSON")
 }
\ No newline at end of file
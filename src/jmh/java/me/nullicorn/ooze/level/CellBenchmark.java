@@ -0,0 +1,48 @@
+package me.nullicorn.ooze.level;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of copying a {@link Cell} into its own palette, for cells that only use part
+ * of a shared palette.
+ *
+ * @author Nullicorn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CellBenchmark {
+
+  @Param({"16", "256", "4096"})
+  public int paletteSize;
+
+  private Cell cell;
+
+  @Setup
+  public void setUp() {
+    Palette palette = SyntheticWorlds.palette("bench:shared", paletteSize);
+
+    // Leave most blocks as the first state, so that many
+    // of the palette's states go unused.
+    cell = SyntheticWorlds.cell(palette, 0.1, paletteSize);
+  }
+
+  @Benchmark
+  public Cell isolatedCopy() {
+    return cell.isolatedCopy();
+  }
+}
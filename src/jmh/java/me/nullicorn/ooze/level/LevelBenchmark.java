@@ -0,0 +1,63 @@
+package me.nullicorn.ooze.level;
+
+import com.github.ooze.protos.LevelData;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of converting whole {@link Level levels} to and from their ProtoBuf form. The
+ * levels are {@link SyntheticWorlds#level(int, int) generated} to resemble real terrain: a
+ * {@code width} of 32 is 512x256x512 blocks, or about 10k cells.
+ *
+ * @author Nullicorn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class LevelBenchmark {
+
+  @Param({"8", "32"})
+  public int width;
+
+  @Param({"1000"})
+  public int entities;
+
+  private Level     level;
+  private LevelData proto;
+
+  @Setup
+  public void setUp() throws IOException {
+    level = SyntheticWorlds.level(width, entities);
+    proto = level.toProto();
+  }
+
+  @Benchmark
+  public LevelData toProto() throws IOException {
+    return level.toProto();
+  }
+
+  @Benchmark
+  public LevelData toProtoParallel() throws IOException {
+    return level.toProto(ForkJoinPool.commonPool());
+  }
+
+  @Benchmark
+  public Level fromProto() throws IOException {
+    return Level.fromProto(proto);
+  }
+}
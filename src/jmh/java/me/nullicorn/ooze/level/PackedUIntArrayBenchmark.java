@@ -0,0 +1,105 @@
+package me.nullicorn.ooze.level;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-element cost of reading and writing uints in a {@link PackedUIntArray}, for
+ * each possible magnitude. Arrays are the same size as a {@link Cell cell's} block array.
+ *
+ * @author Nullicorn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PackedUIntArrayBenchmark {
+
+  private static final int SIZE = 4096;
+
+  @Param({
+      "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16",
+      "17", "18", "19", "20", "21", "22", "23", "24", "25", "26", "27", "28", "29", "30", "31", "32"
+  })
+  public int magnitude;
+
+  private int[]                  uints;
+  private int[]                  unpacked;
+  private PackedUIntArray        array;
+  private MutablePackedUIntArray mutableArray;
+
+  @Setup
+  public void setUp() {
+    int mask = (int) ((1L << magnitude) - 1);
+
+    Random random = new Random(magnitude);
+    uints = new int[SIZE];
+    for (int i = 0; i < SIZE; i++) {
+      uints[i] = random.nextInt() & mask;
+    }
+    // Make sure the whole magnitude is used.
+    uints[0] = mask;
+
+    unpacked = new int[SIZE];
+    array = new PackedUIntArray(uints);
+    mutableArray = array.toMutable();
+  }
+
+  /**
+   * Reads every uint in the array, one at a time.
+   */
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public int get() {
+    int sum = 0;
+    for (int i = 0; i < SIZE; i++) {
+      sum += array.get(i);
+    }
+    return sum;
+  }
+
+  /**
+   * Packs every uint into a new array.
+   */
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public PackedUIntArray pack() {
+    return new PackedUIntArray(uints);
+  }
+
+  /**
+   * Replaces every uint in a mutable array, one at a time.
+   */
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public MutablePackedUIntArray set() {
+    for (int i = 0; i < SIZE; i++) {
+      mutableArray.set(i, uints[SIZE - 1 - i]);
+    }
+    return mutableArray;
+  }
+
+  /**
+   * Unpacks every uint in the array at once.
+   */
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public int[] copyInto() {
+    array.copyInto(unpacked, 0);
+    return unpacked;
+  }
+}
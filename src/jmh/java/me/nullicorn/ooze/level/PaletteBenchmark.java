@@ -0,0 +1,52 @@
+package me.nullicorn.ooze.level;
+
+import com.github.ooze.protos.PaletteData;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of converting a {@link Palette} to and from its ProtoBuf form.
+ *
+ * @author Nullicorn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaletteBenchmark {
+
+  @Param({"16", "256", "4096"})
+  public int paletteSize;
+
+  private Palette     palette;
+  private PaletteData proto;
+
+  @Setup
+  public void setUp() throws IOException {
+    palette = SyntheticWorlds.palette("bench:palette", paletteSize);
+    proto = palette.toProto();
+  }
+
+  @Benchmark
+  public Palette fromProto() throws IOException {
+    return Palette.fromProto(proto);
+  }
+
+  @Benchmark
+  public PaletteData toProto() throws IOException {
+    return palette.toProto();
+  }
+}
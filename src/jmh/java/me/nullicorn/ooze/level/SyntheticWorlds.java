@@ -0,0 +1,133 @@
+package me.nullicorn.ooze.level;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import me.nullicorn.nedit.type.NBTCompound;
+import me.nullicorn.nedit.type.NBTList;
+import me.nullicorn.nedit.type.TagType;
+
+/**
+ * Generators for the data used by benchmarks. Everything is seeded, so the same arguments always
+ * produce the same data.
+ *
+ * @author Nullicorn
+ */
+final class SyntheticWorlds {
+
+  private static final String[] BLOCK_NAMES = {
+      "minecraft:stone", "minecraft:dirt", "minecraft:oak_log", "minecraft:oak_stairs",
+      "minecraft:redstone_wire", "minecraft:chest", "minecraft:water", "minecraft:wheat"
+  };
+
+  private static final String[] DIRECTIONS = {"north", "south", "east", "west"};
+
+  /**
+   * Generates a palette whose states look like vanilla ones, with a few string properties each.
+   * The first state is always {@link BlockState#empty() empty}.
+   */
+  static Palette palette(String name, int numberOfStates) {
+    Random random = new Random(numberOfStates);
+
+    List<BlockState> states = new ArrayList<>(numberOfStates);
+    states.add(BlockState.empty());
+    for (int i = 1; i < numberOfStates; i++) {
+      NBTCompound properties = new NBTCompound();
+      properties.put("facing", DIRECTIONS[random.nextInt(DIRECTIONS.length)]);
+      properties.put("waterlogged", Boolean.toString(random.nextBoolean()));
+      properties.put("variant", Integer.toString(i));
+
+      String blockName = BLOCK_NAMES[random.nextInt(BLOCK_NAMES.length)];
+      states.add(new BlockState(blockName, properties));
+    }
+
+    return new Palette(name, 2730, states);
+  }
+
+  /**
+   * Generates a cell where roughly {@code fillRatio} of the blocks are randomly chosen from the
+   * palette, and the rest use its first state.
+   */
+  static Cell cell(Palette palette, double fillRatio, long seed) {
+    Random random = new Random(seed);
+
+    int[] blocks = new int[4096];
+    for (int i = 0; i < blocks.length; i++) {
+      if (random.nextDouble() < fillRatio) {
+        blocks[i] = random.nextInt(palette.size());
+      }
+    }
+
+    return new Cell(palette, new PackedUIntArray(blocks));
+  }
+
+  /**
+   * Generates an NBT compound shaped like a vanilla mob.
+   */
+  static NBTCompound entity(long seed) {
+    Random random = new Random(seed);
+
+    NBTCompound entity = new NBTCompound();
+    entity.put("id", "minecraft:zombie");
+    entity.put("Health", 20f);
+    entity.put("OnGround", (byte) 1);
+    entity.put("UUID", new int[]{random.nextInt(), random.nextInt(), random.nextInt(), 0});
+
+    NBTList position = new NBTList(TagType.DOUBLE);
+    position.add(random.nextDouble() * 512);
+    position.add(random.nextDouble() * 256);
+    position.add(random.nextDouble() * 512);
+    entity.put("Pos", position);
+
+    NBTList armor = new NBTList(TagType.COMPOUND);
+    for (int i = 0; i < 4; i++) {
+      NBTCompound item = new NBTCompound();
+      item.put("id", "minecraft:iron_helmet");
+      item.put("Count", (byte) 1);
+      armor.add(item);
+    }
+    entity.put("ArmorItems", armor);
+
+    return entity;
+  }
+
+  /**
+   * Generates a level that is {@code width} cells wide and deep, and 16 cells (256 blocks) tall,
+   * roughly resembling terrain. Cells near the bottom are mostly solid, cells near the top are
+   * mostly empty, and the rest are a mix. Columns of cells share one of a few palettes.
+   */
+  static Level level(int width, int numberOfEntities) {
+    Palette[] palettes = new Palette[4];
+    for (int i = 0; i < palettes.length; i++) {
+      palettes[i] = palette("bench:palette_" + i, 16 << i);
+    }
+
+    Level level = new Level();
+    for (int x = 0; x < width; x++) {
+      for (int z = 0; z < width; z++) {
+        Palette palette = palettes[(x + z) % palettes.length];
+
+        for (int y = 0; y < 16; y++) {
+          if (y >= 10) {
+            // Sky; leave it out entirely.
+            continue;
+          }
+
+          double fillRatio = y < 4 ? 1 : 0.5;
+          long seed = ((long) x << 32) ^ ((long) z << 16) ^ y;
+          level.setCell(x, y, z, cell(palette, fillRatio, seed));
+        }
+      }
+    }
+
+    for (int i = 0; i < numberOfEntities; i++) {
+      level.getEntities().add(entity(i));
+    }
+
+    return level;
+  }
+
+  private SyntheticWorlds() {
+    throw new UnsupportedOperationException(getClass() + " should not be instantiated");
+  }
+}
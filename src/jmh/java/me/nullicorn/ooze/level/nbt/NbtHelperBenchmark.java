@@ -0,0 +1,123 @@
+package me.nullicorn.ooze.level.nbt;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import me.nullicorn.nedit.type.NBTCompound;
+import me.nullicorn.nedit.type.NBTList;
+import me.nullicorn.nedit.type.TagType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of encoding and decoding typical NBT compounds: a small block state property
+ * compound, and a larger entity-like compound.
+ *
+ * @author Nullicorn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NbtHelperBenchmark {
+
+  private NBTCompound properties;
+  private NBTCompound entity;
+  private NBTCompound immutableProperties;
+  private ByteString  encodedProperties;
+  private ByteString  compactProperties;
+  private ByteString  encodedEntity;
+  private byte[]      fieldBuffer;
+
+  @Setup
+  public void setUp() throws IOException {
+    properties = new NBTCompound();
+    properties.put("facing", "north");
+    properties.put("half", "bottom");
+    properties.put("shape", "straight");
+    properties.put("waterlogged", "false");
+
+    entity = new NBTCompound();
+    entity.put("id", "minecraft:zombie");
+    entity.put("Health", 20f);
+    entity.put("OnGround", (byte) 1);
+    entity.put("UUID", new int[]{1, 2, 3, 4});
+    NBTList position = new NBTList(TagType.DOUBLE);
+    position.add(1.5);
+    position.add(64.0);
+    position.add(-20.25);
+    entity.put("Pos", position);
+    NBTList armor = new NBTList(TagType.COMPOUND);
+    for (int i = 0; i < 4; i++) {
+      NBTCompound item = new NBTCompound();
+      item.put("id", "minecraft:iron_helmet");
+      item.put("Count", (byte) 1);
+      armor.add(item);
+    }
+    entity.put("ArmorItems", armor);
+
+    immutableProperties = NbtHelper.copyToImmutable(properties);
+    encodedProperties = NbtHelper.encodeToBytes(properties);
+    compactProperties = NbtHelper.encodePropertiesToBytes(properties, true);
+    encodedEntity = NbtHelper.encodeToBytes(entity);
+    fieldBuffer = new byte[encodedEntity.size() + 16];
+  }
+
+  @Benchmark
+  public ByteString encodeProperties() throws IOException {
+    return NbtHelper.encodeToBytes(properties);
+  }
+
+  @Benchmark
+  public NBTCompound decodeProperties() throws IOException {
+    return NbtHelper.decodeFromBytes(encodedProperties);
+  }
+
+  @Benchmark
+  public ByteString encodeCompactProperties() throws IOException {
+    return NbtHelper.encodePropertiesToBytes(properties, true);
+  }
+
+  @Benchmark
+  public NBTCompound decodeCompactProperties() throws IOException {
+    return NbtHelper.decodePropertiesFromBytes(compactProperties);
+  }
+
+  @Benchmark
+  public int iterateImmutableProperties() {
+    int length = 0;
+    for (Map.Entry<String, Object> property : immutableProperties.entrySet()) {
+      length += property.getKey().length();
+    }
+    return length;
+  }
+
+  @Benchmark
+  public ByteString encodeEntity() throws IOException {
+    return NbtHelper.encodeToBytes(entity);
+  }
+
+  @Benchmark
+  public int encodeEntityToField() throws IOException {
+    CodedOutputStream output = CodedOutputStream.newInstance(fieldBuffer);
+    NbtHelper.encodeToField(entity, 1, output);
+    return output.spaceLeft();
+  }
+
+  @Benchmark
+  public NBTCompound decodeEntity() throws IOException {
+    return NbtHelper.decodeFromBytes(encodedEntity);
+  }
+}
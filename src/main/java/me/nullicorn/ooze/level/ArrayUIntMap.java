@@ -1,11 +1,17 @@
 package me.nullicorn.ooze.level;
 
+import java.util.Arrays;
+
 /**
- * A structure for associating unique integer keys with unsigned integer values.
+ * A {@link UIntMap} for small, non-negative keys, such as indices in a {@link Palette}.
+ * <p><br>
+ * Each value is stored at the array index equal to its key, so lookups take constant time and never
+ * probe. Memory use is proportional to the largest key, rather than the number of entries, so this
+ * is best when most keys in a range are used.
  *
  * @author Nullicorn
  */
-class ArrayUIntMap {
+final class ArrayUIntMap implements UIntMap {
 
   /**
    * The number of entries currently in the map.
@@ -13,15 +19,9 @@ class ArrayUIntMap {
   private int size;
 
   /**
-   * The number of entries that the {@link #flatMap} can currently hold.
+   * The value for each key, at the index equal to the key. Keys without a value have {@code -1}.
    */
-  private int capacity;
-
-  /**
-   * All keys and values in the map. Keys are at even indices, and their respective values are at
-   * the next odd indices.
-   */
-  private int[] flatMap;
+  private int[] values;
 
   /**
    * Creates a new map with an arbitrary initial capacity.
@@ -33,100 +33,66 @@ class ArrayUIntMap {
   }
 
   /**
-   * Creates a new map that can hold up to a certain number of entries before growing internally.
+   * Creates a new map that can hold keys up to (but excluding) {@code initialCapacity} before
+   * growing internally.
    * <p><br>
-   * This does not change the map's behavior, but allows memory to be saved if the required number
-   * of entries is known beforehand.
+   * This does not change the map's behavior, but allows memory to be saved if the largest key is
+   * known beforehand.
    */
   public ArrayUIntMap(int initialCapacity) {
     if (initialCapacity < 0) {
       throw new IllegalArgumentException("initialCapacity cannot be negative: " + initialCapacity);
     }
 
-    capacity = initialCapacity;
-    flatMap = new int[initialCapacity * 2];
+    values = new int[initialCapacity];
+    Arrays.fill(values, -1);
   }
 
-  /**
-   * @return the number of key/value pairs in the map.
-   */
+  @Override
   public int size() {
     return size;
   }
 
-  /**
-   * Retrieves the value associated with a {@code key}, if it has one.
-   *
-   * @param key The key whose respective value should be returned.
-   * @return the value for the key, or {@code -1} if none is set.
-   * @see #set(int, int)
-   */
+  @Override
   public int get(int key) {
-    int keyIndex = indexOfKey(key);
-    return keyIndex == -1
-        ? -1
-        : flatMap[keyIndex + 1];
+    return key >= 0 && key < values.length
+        ? values[key]
+        : -1;
   }
 
   /**
-   * Associates a value with a unique key, replacing the existing value for that key if applicable.
+   * {@inheritDoc}
    *
-   * @param key   A unique integer that can be used to retrieve the value later.
-   * @param value An integer value to associate with the key.
-   * @return the replaced value, or an {@code -1} if the key was not already in the map.
-   * @throws IllegalArgumentException if the {@code value} is negative.
-   * @see #get(int)
+   * @throws IllegalArgumentException if the {@code key} is negative.
    */
+  @Override
   public int set(int key, int value) {
     if (value < 0) {
       throw new IllegalArgumentException(value + " is not allowed in an unsigned map");
+    } else if (key < 0) {
+      throw new IllegalArgumentException("Key cannot be negative: " + key);
     }
 
-    int oldValue;
-
-    int keyIndex = indexOfKey(key);
-    if (keyIndex == -1) {
-      oldValue = -1;
-
-      // We need to add the key/value pair.
-      // Makes sure there's space in the array.
-      if (size == capacity) {
-        upscale(1 + (int) (capacity * 1.5d));
-      }
+    if (key >= values.length) {
+      upscale(Math.max(key + 1, 1 + (int) (values.length * 1.5d)));
+    }
 
-      keyIndex = 2 * (size - 1);
+    int oldValue = values[key];
+    if (oldValue == -1) {
       size++;
-
-    } else {
-      oldValue = flatMap[keyIndex + 1];
     }
 
-    flatMap[keyIndex + 1] = value;
+    values[key] = value;
     return oldValue;
   }
 
   /**
-   * @return the index in {@link #flatMap} where the {@code key} is held, or {@code -1} if the map
-   * does not contain that key.
-   */
-  private int indexOfKey(int key) {
-    for (int i = 0; i < size * 2; i += 2) {
-      if (flatMap[i] == key) {
-        return i;
-      }
-    }
-    return -1;
-  }
-
-  /**
-   * Helper method for increasing the internal {@link #capacity}.
+   * Helper method for increasing the number of keys the map can hold.
    */
   private void upscale(int newCapacity) {
-    capacity = newCapacity;
-
-    int[] tempFlatMap = flatMap;
-    flatMap = new int[capacity * 2];
+    int oldCapacity = values.length;
 
-    System.arraycopy(tempFlatMap, 0, flatMap, 0, tempFlatMap.length);
+    values = Arrays.copyOf(values, newCapacity);
+    Arrays.fill(values, oldCapacity, newCapacity, -1);
   }
 }
@@ -30,21 +30,62 @@ public final class BlockState {
 
   /**
    * A factory for converting block states from their ProtoBuf form.
+   * <p><br>
+   * Properties in the compact {@link #toProto(boolean) string table} format are decoded right
+   * away. NBT-encoded properties are not decoded until they're first needed, which includes
+   * comparing or hashing the state. Until then, {@link #toProto()} reuses their original bytes.
    *
-   * @throws IOException              if the state's properties could not be NBT-decoded.
+   * @throws IOException              if the state's properties are in the string table format, but
+   *                                  are malformed. NBT properties that can't be decoded cause an
+   *                                  {@link java.io.UncheckedIOException UncheckedIOException} once
+   *                                  they're needed instead.
    * @throws IllegalArgumentException if the {@code proto} is {@code null}.
    */
   public static BlockState fromProto(BlockStateData proto) throws IOException {
     if (proto == null) {
       throw new IllegalArgumentException("null proto cannot be converted to a block state");
     }
-    return new BlockState(proto.getName(), NbtHelper.decodeFromBytes(proto.getProperties()));
+    NBTCompound properties = NbtHelper.decodePropertiesFromBytes(proto.getProperties());
+    return new BlockState(proto.getName(), properties);
   }
 
+  /**
+   * The {@link #id} of states that are not {@link BlockStateRegistry canonical}.
+   */
+  static final int NO_ID = -1;
+
   private final String      name;
   private final NBTCompound properties;
   private final boolean     isEmpty;
 
+  /**
+   * The state's {@link #hashCode() hash code}, which never changes because states are immutable.
+   * Computed the first time it's needed, so that {@link #fromProto(BlockStateData) decoded}
+   * properties aren't decoded any sooner than they have to be. Until then, it's {@code 0}.
+   */
+  private int hash;
+
+  /**
+   * The state's id in the {@link BlockStateRegistry}, or {@link #NO_ID} if it is not the canonical
+   * instance. Only assigned by the registry.
+   */
+  int id = NO_ID;
+
+  /**
+   * The state's canonical instance in the {@link BlockStateRegistry}, or {@code null} if it isn't
+   * known yet. Only assigned by the registry, or when the state is {@link #isInternedLazily
+   * interned lazily}.
+   */
+  volatile BlockState canonical;
+
+  /**
+   * Whether the state should be {@link #intern() interned} the first time it's hashed or compared.
+   * Set by the registry for states that it {@link BlockStateRegistry#fromProto(BlockStateData)
+   * converts from protos}, so that they can be compared by identity without their properties being
+   * decoded any sooner.
+   */
+  boolean isInternedLazily;
+
   /**
    * Constructs a non-empty block state with the provided {@code name}, but with no properties.
    *
@@ -134,15 +175,38 @@ public final class BlockState {
     return isEmpty;
   }
 
+  /**
+   * @return the canonical instance of the state, which is equal to it.
+   * @see BlockStateRegistry#intern(BlockState)
+   */
+  public BlockState intern() {
+    return BlockStateRegistry.intern(this);
+  }
+
   /**
    * @return a Protocol Buffer with the same {@link #getName() name} and {@link #getProperties()
-   * properties} as the block state.
+   * properties} as the block state. The properties are NBT-encoded.
    * @throws IOException if the state's properties could not be NBT-encoded.
+   * @see #toProto(boolean)
    */
   public BlockStateData toProto() throws IOException {
+    return toProto(false);
+  }
+
+  /**
+   * Same as {@link #toProto()}, but properties that are all strings can optionally use a {@link
+   * NbtHelper#encodePropertiesToBytes(NBTCompound, boolean) compact format} instead of NBT.
+   * <p><br>
+   * The compact format can be read by {@link #fromProto(BlockStateData) fromProto()}, but not by
+   * readers that expect the properties to be NBT, such as older versions of this library.
+   *
+   * @param compactProperties Whether the compact format should be used when possible.
+   * @throws IOException if the state's properties could not be NBT-encoded.
+   */
+  public BlockStateData toProto(boolean compactProperties) throws IOException {
     return BlockStateData.newBuilder()
         .setName(name)
-        .setProperties(NbtHelper.encodeToBytes(properties))
+        .setProperties(NbtHelper.encodePropertiesToBytes(properties, compactProperties))
         .build();
   }
 
@@ -164,6 +228,16 @@ public final class BlockState {
       return false;
     }
     BlockState state = (BlockState) o;
+    if (hashCode() != state.hashCode()) {
+      return false;
+    }
+
+    BlockState canonical = knownCanonical();
+    BlockState otherCanonical = state.knownCanonical();
+    if (canonical != null && otherCanonical != null) {
+      // Equal states always have the same canonical instance.
+      return canonical == otherCanonical;
+    }
     return isEmpty == state.isEmpty &&
            name.equals(state.name) &&
            properties.equals(state.properties);
@@ -171,6 +245,40 @@ public final class BlockState {
 
   @Override
   public int hashCode() {
+    // Racy, but harmless, since every thread computes the
+    // same value.
+    int h = hash;
+    if (h == 0) {
+      h = computeHash();
+      hash = h;
+      if (isInternedLazily) {
+        knownCanonical();
+      }
+    }
+    return h;
+  }
+
+  /**
+   * @return the state's canonical instance, or {@code null} if it isn't known. If the state is
+   * {@link #isInternedLazily interned lazily}, and hasn't been yet, it's interned first.
+   */
+  private BlockState knownCanonical() {
+    if (id != NO_ID) {
+      return this;
+    }
+
+    BlockState known = canonical;
+    if (known == null && isInternedLazily) {
+      // Cleared first, so that the comparisons made while
+      // interning don't try to intern it again.
+      isInternedLazily = false;
+      known = BlockStateRegistry.intern(this);
+      canonical = known;
+    }
+    return known;
+  }
+
+  private int computeHash() {
     return Objects.hash(name, properties, isEmpty);
   }
 }
@@ -0,0 +1,202 @@
+package me.nullicorn.ooze.level;
+
+import com.github.ooze.protos.BlockStateData;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A global set of canonical {@link BlockState block states}, similar to {@link String#intern()}.
+ * <p><br>
+ * Equal states that are {@link #intern(BlockState) interned} always resolve to the same instance,
+ * so identical states from different palettes or levels share memory, and can be compared by
+ * identity. Each canonical state also has a unique {@link #idOf(BlockState) id}. Ids are dense,
+ * starting from {@code 0}, so they can be used to index arrays or be stored in primitive
+ * collections.
+ * <p><br>
+ * Ids are only stable for the lifetime of the JVM, and should not be saved. Interned states are
+ * never released.
+ * <p><br>
+ * All methods are thread-safe. Lookups of states that are already interned, and conversions of
+ * protos, do not lock.
+ *
+ * @author Nullicorn
+ */
+public final class BlockStateRegistry {
+
+  /**
+   * The canonical instance of each interned state, keyed by itself.
+   */
+  private static final Map<BlockState, BlockState> canonicalStates = new ConcurrentHashMap<>();
+
+  /**
+   * The most protos that {@link #statesByProto} will hold. Once it's full, an arbitrary entry is
+   * evicted for each new one.
+   */
+  static final int MAX_CACHED_PROTOS = 4096;
+
+  /**
+   * The shared instance of recently {@link #fromProto(BlockStateData) converted} states, keyed by
+   * their encoded form. This lets identical states share memory without decoding or hashing their
+   * properties, and without holding onto every proto ever read.
+   */
+  private static final Map<BlockStateData, BlockState> statesByProto = new ConcurrentHashMap<>();
+
+  /**
+   * Guards {@link #statesById} and {@link #size} while a new state is being registered.
+   */
+  private static final Object lock = new Object();
+
+  /**
+   * Every canonical state, at the index of its id. Only indices below {@link #size} are used.
+   */
+  private static volatile BlockState[] statesById = new BlockState[256];
+
+  /**
+   * The number of canonical states. Always written after {@link #statesById}, so that any id below
+   * it is visible there to readers.
+   */
+  private static volatile int size;
+
+  static {
+    // Guarantees that the empty state always has id 0.
+    intern(BlockState.empty());
+  }
+
+  /**
+   * @return the canonical instance of the {@code state}. If an equal state was interned before, that
+   * instance is returned. Otherwise, the {@code state} itself becomes the canonical instance.
+   * @throws IllegalArgumentException if the {@code state} is {@code null}.
+   */
+  public static BlockState intern(BlockState state) {
+    if (state == null) {
+      throw new IllegalArgumentException("null state cannot be interned");
+    } else if (state.id != BlockState.NO_ID) {
+      // Already canonical.
+      return state;
+    }
+
+    BlockState canonical = state.canonical;
+    if (canonical != null) {
+      return canonical;
+    }
+
+    canonical = canonicalStates.get(state);
+    if (canonical != null) {
+      state.canonical = canonical;
+      return canonical;
+    }
+
+    synchronized (lock) {
+      // Check again, in case another thread registered it
+      // while we were waiting.
+      canonical = canonicalStates.get(state);
+      if (canonical != null) {
+        state.canonical = canonical;
+        return canonical;
+      }
+
+      int id = size;
+      BlockState[] states = statesById;
+      if (id == states.length) {
+        states = Arrays.copyOf(states, states.length * 2);
+      }
+      states[id] = state;
+      state.id = id;
+
+      statesById = states;
+      size = id + 1;
+
+      // Only published once its id is assigned.
+      canonicalStates.put(state, state);
+      return state;
+    }
+  }
+
+  /**
+   * @return the id of the {@code state}'s {@link #intern(BlockState) canonical instance}. If the
+   * state was not interned yet, it is interned first.
+   * @throws IllegalArgumentException if the {@code state} is {@code null}.
+   */
+  public static int idOf(BlockState state) {
+    return intern(state).id;
+  }
+
+  /**
+   * @return the canonical state with the provided {@code id}.
+   * @throws IndexOutOfBoundsException if no state has that id.
+   */
+  public static BlockState get(int id) {
+    int size = BlockStateRegistry.size;
+    if (id < 0 || id >= size) {
+      throw new IndexOutOfBoundsException("Id must be from 0 to " + (size - 1) + ": " + id);
+    }
+    return statesById[id];
+  }
+
+  /**
+   * @return the number of states that have been interned. Every id is less than this.
+   */
+  public static int size() {
+    return size;
+  }
+
+  /**
+   * @return the number of protos whose states are currently cached for {@link
+   * #fromProto(BlockStateData)}. Only more than {@link #MAX_CACHED_PROTOS} while other threads are
+   * adding to the cache.
+   */
+  static int cachedProtoCount() {
+    return statesByProto.size();
+  }
+
+  /**
+   * Same as {@link BlockState#fromProto(BlockStateData)}, but if an identical proto has been
+   * converted recently, that state is reused.
+   * <p><br>
+   * Protos are compared by their encoded bytes, so the state's properties are still left undecoded.
+   * For the same reason, the state is not {@link #intern(BlockState) interned} right away, because
+   * that would require hashing them. Instead, it's interned the first time it's hashed or compared,
+   * or when its {@link #idOf(BlockState) id} is needed. Until then, it may not be the canonical
+   * instance.
+   *
+   * @throws IOException              if the state's properties are in the compact string format,
+   *                                  but are malformed.
+   * @throws IllegalArgumentException if the {@code proto} is {@code null}.
+   */
+  public static BlockState fromProto(BlockStateData proto) throws IOException {
+    if (proto == null) {
+      throw new IllegalArgumentException("null proto cannot be converted to a block state");
+    }
+
+    BlockState state = statesByProto.get(proto);
+    if (state != null) {
+      return state;
+    }
+
+    state = BlockState.fromProto(proto);
+    state.isInternedLazily = true;
+
+    // Another thread may have converted the same proto in
+    // the meantime.
+    BlockState existing = statesByProto.putIfAbsent(proto, state);
+    if (existing != null) {
+      return existing;
+    }
+
+    if (statesByProto.size() > MAX_CACHED_PROTOS) {
+      Iterator<BlockStateData> iterator = statesByProto.keySet().iterator();
+      if (iterator.hasNext()) {
+        iterator.next();
+        iterator.remove();
+      }
+    }
+    return state;
+  }
+
+  private BlockStateRegistry() {
+    throw new UnsupportedOperationException(getClass() + " should not be instantiated");
+  }
+}
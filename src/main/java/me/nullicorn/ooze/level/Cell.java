@@ -1,9 +1,13 @@
 package me.nullicorn.ooze.level;
 
 import com.github.ooze.protos.CellData;
+import com.github.ooze.protos.PackedUIntArrayData;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * A 16x16x16 cube of blocks.
@@ -12,10 +16,33 @@ import java.util.List;
  */
 public final class Cell {
 
+  /**
+   * The number of blocks in a cell.
+   */
+  private static final int VOLUME = 4096;
+
+  /**
+   * Cached block arrays for {@link #isUniform() uniform} cells, indexed by their magnitude and then
+   * their value. Only small values are cached, since those are by far the most common (e.g. air
+   * at index 0). Races are harmless; the worst case is that an array is created twice.
+   */
+  private static final PackedUIntArray[][] uniformArrays =
+      new PackedUIntArray[Integer.SIZE + 1][16];
+
+  /**
+   * The number of blocks unpacked at a time while choosing how to store a cell.
+   */
+  private static final int SCAN_CHUNK_SIZE = 256;
+
+  /**
+   * Scratch space for unpacking block arrays while choosing how to store them.
+   */
+  private static final ThreadLocal<int[]> scratch = ThreadLocal.withInitial(() -> new int[VOLUME]);
+
   /**
    * A constant value returned by the {@link #empty()} factory.
    */
-  private static final Cell EMPTY = new Cell(Palette.empty(), new PackedUIntArray(new int[4096]));
+  private static final Cell EMPTY = uniform(Palette.empty(), 0);
 
   /**
    * A factory for creating empty cells, such that each value in the {@link #getBlocks() blocks}
@@ -31,20 +58,205 @@ public final class Cell {
     return EMPTY;
   }
 
+  /**
+   * A factory for converting cells from their ProtoBuf form.
+   * <p><br>
+   * The cell's block array is read directly from the proto's bytes, which are then kept for the
+   * cell's own {@link #toProto()}. That way, cells that are loaded and saved without being changed
+   * never have their blocks copied. This includes cells that are stored compactly, which would
+   * otherwise have to re-create their block array to be saved.
+   *
+   * @param proto          The cell to convert.
+   * @param palettesByName All the palettes that the cell could use, keyed by their names.
+   * @throws IllegalArgumentException if the {@code proto} or {@code palettesByName} are {@code
+   *                                  null}, if the cell's palette is not in the map, or if its
+   *                                  block array is malformed.
+   */
+  public static Cell fromProto(CellData proto, Map<String, Palette> palettesByName) {
+    if (proto == null) {
+      throw new IllegalArgumentException("null proto cannot be converted to a cell");
+    } else if (palettesByName == null) {
+      throw new IllegalArgumentException("null palette map cannot be used for cell");
+    }
+
+    Palette palette = palettesByName.get(proto.getPaletteName());
+    if (palette == null) {
+      throw new IllegalArgumentException("Unknown palette: \"" + proto.getPaletteName() + "\"");
+    }
+
+    return new Cell(palette, PackedUIntArray.fromProto(proto.getBlocks()), true);
+  }
+
+  /**
+   * A factory for creating cells where every block has the same state.
+   * <p><br>
+   * Such cells don't hold a block array at all, so they use very little memory.
+   *
+   * @param palette The cell's palette.
+   * @param state   The palette index of every block's state.
+   * @throws IllegalArgumentException if the {@code palette} is {@code null}, or if the {@code state}
+   *                                  is negative.
+   */
+  public static Cell uniform(Palette palette, int state) {
+    if (palette == null) {
+      throw new IllegalArgumentException("null palette cannot be used in cell");
+    } else if (state < 0) {
+      throw new IllegalArgumentException("state index cannot be negative: " + state);
+    }
+    return new Cell(palette, state, BitsKt.getWidth(state), null, null, null, null);
+  }
+
+  /*
+   * Blocks are stored in one of three ways, depending on how many distinct states the cell uses:
+   *
+   * - Dense:   `blocks` holds every block.
+   * - Uniform: Every block is the `background` state. All arrays are null.
+   * - Sparse:  Most blocks are the `background` state. The others are listed in `exceptionIndices`
+   *            (in ascending order), and their states in `exceptionStates` (at the same indices).
+   *
+   * In the last two modes, `magnitude` is the magnitude of the block array they were created from,
+   * so that getBlocks() returns an identical array.
+   */
+
   private final Palette         palette;
   private final PackedUIntArray blocks;
+  private final int             background;
+  private final int             magnitude;
+  private final short[]         exceptionIndices;
+  private final PackedUIntArray exceptionStates;
+
+  /**
+   * The ProtoBuf form of the block array that a compact cell was {@link #fromProto(CellData, Map)
+   * loaded} from, so that {@link #toProto()} can reuse it. Otherwise {@code null}, including for
+   * dense cells, whose {@link #blocks} already keep their own.
+   */
+  private final PackedUIntArrayData encodedBlocks;
+
+  /**
+   * The cell's {@link #hashCode() hash code}, or {@code 0} if it hasn't been computed yet.
+   */
+  private int hash;
 
+  /**
+   * Creates a cell with the provided palette and blocks.
+   * <p><br>
+   * If most of the blocks share the same state, the cell stores them in a more compact form
+   * instead of keeping the array. This is transparent to users of the cell, besides {@link
+   * #getBlocks()} needing to re-create the array.
+   *
+   * @throws IllegalArgumentException if the {@code palette} or {@code blocks} are {@code null}, or
+   *                                  if the array doesn't have exactly 4096 values.
+   */
   public Cell(Palette palette, PackedUIntArray blocks) {
+    this(palette, blocks, false);
+  }
+
+  /**
+   * @param keepEncoded Whether the {@code blocks}' ProtoBuf form should be kept if the cell is
+   *                    stored compactly. See {@link #encodedBlocks}.
+   */
+  private Cell(Palette palette, PackedUIntArray blocks, boolean keepEncoded) {
     if (palette == null) {
       throw new IllegalArgumentException("null palette cannot be used in cell");
     } else if (blocks == null) {
       throw new IllegalArgumentException("null block array cannot be used in cell");
-    } else if (blocks.size() != 4096) {
+    } else if (blocks.size() != VOLUME) {
       throw new IllegalArgumentException("Block array must have 4096 uints, not " + blocks.size());
     }
 
+    // Only cells where almost every block has the same state
+    // are worth storing sparsely. That state is very likely
+    // to be either the first block's, or the first one that
+    // differs. Both are counted at once, and counting stops
+    // early if neither can be the background.
+    int magnitude = blocks.magnitude();
+    int maxExceptions = maxSparseExceptions(magnitude);
+
+    int[] states = scratch.get();
+    int first = blocks.get(0);
+    int firstExceptions = 0;
+    int second = 0;
+    int secondExceptions = 0;
+    boolean hasSecond = false;
+
+    for (int chunk = 0; chunk < VOLUME; chunk += SCAN_CHUNK_SIZE) {
+      blocks.copyRangeInto(chunk, states, chunk, SCAN_CHUNK_SIZE);
+
+      for (int i = chunk; i < chunk + SCAN_CHUNK_SIZE; i++) {
+        int state = states[i];
+        if (state != first) {
+          if (!hasSecond) {
+            // Every block before this one was the first state.
+            hasSecond = true;
+            second = state;
+            secondExceptions = i;
+          }
+          firstExceptions++;
+        }
+        if (hasSecond && state != second) {
+          secondExceptions++;
+        }
+      }
+
+      if (firstExceptions > maxExceptions && secondExceptions > maxExceptions) {
+        break;
+      }
+    }
+
+    int background = first;
+    int exceptions = firstExceptions;
+    if (hasSecond && secondExceptions < firstExceptions) {
+      background = second;
+      exceptions = secondExceptions;
+    }
+
+    this.palette = palette;
+    this.background = background;
+    this.magnitude = magnitude;
+
+    if (exceptions == 0) {
+      this.blocks = null;
+      this.exceptionIndices = null;
+      this.exceptionStates = null;
+      this.encodedBlocks = keepEncoded
+          ? blocks.toProto()
+          : null;
+
+    } else if (exceptions <= maxExceptions) {
+      short[] indices = new short[exceptions];
+      int[] values = new int[exceptions];
+      for (int i = 0, j = 0; i < VOLUME; i++) {
+        if (states[i] != background) {
+          indices[j] = (short) i;
+          values[j++] = states[i];
+        }
+      }
+
+      this.blocks = null;
+      this.exceptionIndices = indices;
+      this.exceptionStates = new PackedUIntArray(values);
+      this.encodedBlocks = keepEncoded
+          ? blocks.toProto()
+          : null;
+
+    } else {
+      this.blocks = blocks;
+      this.exceptionIndices = null;
+      this.exceptionStates = null;
+      this.encodedBlocks = null;
+    }
+  }
+
+  private Cell(Palette palette, int background, int magnitude, PackedUIntArray blocks,
+      short[] exceptionIndices, PackedUIntArray exceptionStates,
+      PackedUIntArrayData encodedBlocks) {
     this.palette = palette;
     this.blocks = blocks;
+    this.background = background;
+    this.magnitude = magnitude;
+    this.exceptionIndices = exceptionIndices;
+    this.exceptionStates = exceptionStates;
+    this.encodedBlocks = encodedBlocks;
   }
 
   /**
@@ -60,18 +272,97 @@ public final class Cell {
    * <p>
    * Blocks appear in the array in XZY order. This means that given a block's X, Y, and Z offset
    * within the cell, it's array index is at: <pre>{@code (x << 8) | (z << 4) | y}</pre>
+   * <p>
+   * Cells that are stored compactly have to re-create their array each time this is called, so
+   * {@link #getBlock(int, int, int) getBlock()} should be preferred for reading individual blocks.
    */
   public PackedUIntArray getBlocks() {
-    return blocks;
+    if (blocks != null) {
+      return blocks;
+    } else if (exceptionIndices == null) {
+      return uniformArray(background, magnitude);
+    }
+
+    MutablePackedUIntArray array = new MutablePackedUIntArray(VOLUME, magnitude);
+    array.fill(0, VOLUME, background);
+    for (int i = 0; i < exceptionIndices.length; i++) {
+      array.set(exceptionIndices[i], exceptionStates.get(i));
+    }
+    return array.toImmutable();
+  }
+
+  /**
+   * @return whether every block in the cell has the same state.
+   */
+  public boolean isUniform() {
+    return blocks == null && exceptionIndices == null;
+  }
+
+  /**
+   * @return whether the cell stores only the blocks that differ from its most common state.
+   */
+  boolean isSparse() {
+    return exceptionIndices != null;
+  }
+
+  /**
+   * @return the state of the block at those coordinates in the cell.
+   * @throws IndexOutOfBoundsException if any of the coordinates are outside the range [0, 15], or
+   *                                   if the block refers to a state that isn't in the palette.
+   * @apiNote Coordinates are relative to the cell's corner, and use units of 1 block.
+   */
+  public BlockState getBlock(int x, int y, int z) {
+    if (((x | y | z) & ~15) != 0) {
+      throw new IndexOutOfBoundsException("Block is outside cell: " + x + ", " + y + ", " + z);
+    }
+    return palette.get(getState((x << 8) | (z << 4) | y));
+  }
+
+  /**
+   * @return the palette index of the block at an index in the {@link #getBlocks() block array}.
+   */
+  private int getState(int index) {
+    if (blocks != null) {
+      return blocks.get(index);
+    } else if (exceptionIndices == null) {
+      return background;
+    }
+
+    int exception = Arrays.binarySearch(exceptionIndices, (short) index);
+    return exception >= 0
+        ? exceptionStates.get(exception)
+        : background;
+  }
+
+  /**
+   * Unpacks the palette index of every block into an array, in the same order as {@link
+   * #getBlocks()}.
+   */
+  private void copyStatesInto(int[] destination) {
+    if (blocks != null) {
+      blocks.copyInto(destination, 0);
+      return;
+    }
+
+    Arrays.fill(destination, 0, VOLUME, background);
+    if (exceptionIndices != null) {
+      for (int i = 0; i < exceptionIndices.length; i++) {
+        destination[exceptionIndices[i]] = exceptionStates.get(i);
+      }
+    }
   }
 
   /**
    * @return A protocol buffer with the same palette and blocks as the cell.
    */
   public CellData toProto() {
+    PackedUIntArrayData encodedBlocks = this.encodedBlocks != null
+        ? this.encodedBlocks
+        : getBlocks().toProto();
+
     return CellData.newBuilder()
         .setPaletteName(palette.getName())
-        .setBlocks(blocks.toProto())
+        .setBlocks(encodedBlocks)
         .build();
   }
 
@@ -88,18 +379,20 @@ public final class Cell {
    * @return an identical cell with its own palette.
    */
   public Cell isolatedCopy() {
-    int arrayLength = blocks.size();
     int paletteSize = palette.size();
 
+    // Unpack the whole block array at once, since we
+    // need to read it twice.
+    int[] states = new int[VOLUME];
+    copyStatesInto(states);
+
     // Determine which (and how many) of the palette's
     // states are being used in the block array.
     //
     // Each index in the BitSet corresponds to the state
     // at the same index in the palette.
     BitSet isStateUsed = new BitSet(paletteSize);
-    for (int i = 0; i < arrayLength; i++) {
-      int state = blocks.get(i);
-
+    for (int state : states) {
       // Mark the index as "used" (as long as it's in
       // bounds).
       if (state >= 0 && state < paletteSize) {
@@ -122,43 +415,41 @@ public final class Cell {
       // If all states are used, then the existing
       // palette & array can just be copied.
       palette.forEach(isolatedPalette::add);
-      isolatedArray = blocks;
+      isolatedArray = getBlocks();
 
     } else {
       // A map for keeping track of each state's index
       // in the original palette and the isolated one.
-      ArrayUIntMap newIndices = new ArrayUIntMap(numberOfUsedStates);
+      // At most 4096 states can be used, so very large
+      // palettes are mapped sparsely instead of directly.
+      UIntMap newIndices = UIntMap.forKeys(paletteSize, numberOfUsedStates);
 
       // Only copy the "used" states into the isolated
       // palette.
-      for (int i = 0; i < paletteSize; i++) {
-        if (isStateUsed.get(i)) {
-          BlockState state = palette.get(i);
+      for (int i = isStateUsed.nextSetBit(0); i >= 0; i = isStateUsed.nextSetBit(i + 1)) {
+        BlockState state = palette.get(i);
 
-          isolatedPalette.add(state);
-          newIndices.set(i, isolatedPalette.size() - 1);
-        }
+        isolatedPalette.add(state);
+        newIndices.set(i, isolatedPalette.size() - 1);
       }
 
       // Recreate the "blocks" array using the isolated
-      // palette.
-      int[] tempIsolatedArray = new int[arrayLength];
-      for (int i = 0; i < arrayLength; i++) {
-        int state = blocks.get(i);
-        int newState = newIndices.get(state);
+      // palette. The unpacked states are reused in-place.
+      for (int i = 0; i < VOLUME; i++) {
+        int newState = newIndices.get(states[i]);
 
         // If for whatever reason the state wasn't
         // remapped at all, set it to 0.
-        tempIsolatedArray[i] = (newState == -1)
+        states[i] = (newState == -1)
             ? 0
             : newState;
       }
 
       // And pack the array.
-      isolatedArray = new PackedUIntArray(tempIsolatedArray);
+      isolatedArray = new PackedUIntArray(states);
     }
 
-    String paletteName = "ooze:isolated_" + Integer.toHexString(hashCode());
+    String paletteName = "ooze:isolated_" + Integer.toHexString(System.identityHashCode(this));
     int paletteVersion = palette.getDataVersion();
 
     return new Cell(
@@ -166,4 +457,73 @@ public final class Cell {
         isolatedArray
     );
   }
+
+  /**
+   * Two cells are equal if they have equal palettes, and identical block arrays (including their
+   * magnitudes). In other words, equal cells always have equal {@link #toProto() protos}.
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    Cell cell = (Cell) o;
+
+    // Cells pick how to store their blocks based only on
+    // the array's contents, so identical arrays are always
+    // stored the same way.
+    return hashCode() == cell.hashCode() &&
+           background == cell.background &&
+           magnitude == cell.magnitude &&
+           Objects.equals(blocks, cell.blocks) &&
+           Arrays.equals(exceptionIndices, cell.exceptionIndices) &&
+           Objects.equals(exceptionStates, cell.exceptionStates) &&
+           palette.equals(cell.palette);
+  }
+
+  @Override
+  public int hashCode() {
+    // Benign race; the hash is always the same.
+    int result = hash;
+    if (result == 0) {
+      result = Objects.hash(palette, blocks, background, magnitude, exceptionStates);
+      result = 31 * result + Arrays.hashCode(exceptionIndices);
+      hash = result;
+    }
+    return result;
+  }
+
+  /**
+   * @return the most blocks that can differ from the background state for the cell to be stored
+   * sparsely. That's when storing only those blocks takes at most half as much memory as storing
+   * the whole block array.
+   */
+  private static int maxSparseExceptions(int magnitude) {
+    return (VOLUME * magnitude) / (2 * (Short.SIZE + magnitude));
+  }
+
+  /**
+   * @return a block array where every value is the {@code state}.
+   */
+  private static PackedUIntArray uniformArray(int state, int magnitude) {
+    boolean isCacheable = state < uniformArrays[magnitude].length;
+    if (isCacheable) {
+      PackedUIntArray cached = uniformArrays[magnitude][state];
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    MutablePackedUIntArray array = new MutablePackedUIntArray(VOLUME, magnitude);
+    array.fill(0, VOLUME, state);
+    PackedUIntArray result = array.toImmutable();
+
+    if (isCacheable) {
+      uniformArrays[magnitude][state] = result;
+    }
+    return result;
+  }
 }
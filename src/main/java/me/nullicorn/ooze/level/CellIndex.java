@@ -0,0 +1,272 @@
+package me.nullicorn.ooze.level;
+
+import java.util.Arrays;
+
+/**
+ * A hash table of cells, keyed by their coordinates.
+ * <p><br>
+ * Each key is a cell's X, Z, and Y coordinates packed into a single {@code long}, in that order
+ * from most to least significant. This means keys can be compared numerically to put cells in XZY
+ * order, which is the order they are saved in. X and Z coordinates can use up to 24 bits each, and
+ * Y coordinates up to 16 bits, all signed.
+ * <p><br>
+ * Keys are stored using open addressing with linear probing, so lookups don't allocate or make
+ * any virtual calls.
+ *
+ * @author Nullicorn
+ * @implNote Values are either {@link Cell Cells}, {@link LazyCell LazyCells}, or {@link EditedCell
+ * EditedCells}, but they're stored as plain objects so that the level can tell them apart without
+ * wrapping them.
+ */
+final class CellIndex {
+
+  private static final int HORIZONTAL_BITS = 24;
+  private static final int VERTICAL_BITS   = 16;
+
+  private static final int MIN_HORIZONTAL = -(1 << (HORIZONTAL_BITS - 1));
+  private static final int MAX_HORIZONTAL = (1 << (HORIZONTAL_BITS - 1)) - 1;
+  private static final int MIN_VERTICAL   = -(1 << (VERTICAL_BITS - 1));
+  private static final int MAX_VERTICAL   = (1 << (VERTICAL_BITS - 1)) - 1;
+
+  /**
+   * The fraction of {@link #values} that can be filled before the table grows.
+   */
+  private static final float LOAD_FACTOR = 0.5f;
+
+  /**
+   * @return whether a cell at those coordinates can be stored in an index.
+   * @apiNote Coordinates use units of 16 blocks, which is the size of a cell (on all sides).
+   */
+  static boolean isInRange(int x, int y, int z) {
+    return x >= MIN_HORIZONTAL && x <= MAX_HORIZONTAL
+           && z >= MIN_HORIZONTAL && z <= MAX_HORIZONTAL
+           && y >= MIN_VERTICAL && y <= MAX_VERTICAL;
+  }
+
+  /**
+   * Packs a cell's coordinates into a key.
+   *
+   * @throws IllegalArgumentException if the coordinates are not {@link #isInRange(int, int, int) in
+   *                                  range}.
+   */
+  static long pack(int x, int y, int z) {
+    if (!isInRange(x, y, z)) {
+      throw new IllegalArgumentException("Cell coordinates out of range: " + x + ", " + y + ", " + z);
+    }
+
+    // X keeps its sign so that negative keys sort first.
+    // Z & Y are offset so that they're never negative.
+    return ((long) x << (HORIZONTAL_BITS + VERTICAL_BITS))
+           | ((long) (z - MIN_HORIZONTAL) << VERTICAL_BITS)
+           | (y - MIN_VERTICAL);
+  }
+
+  /**
+   * @return the X coordinate of a cell, given its key.
+   */
+  static int unpackX(long key) {
+    return (int) (key >> (HORIZONTAL_BITS + VERTICAL_BITS));
+  }
+
+  /**
+   * @return the Y coordinate of a cell, given its key.
+   */
+  static int unpackY(long key) {
+    return (int) (key & ((1 << VERTICAL_BITS) - 1)) + MIN_VERTICAL;
+  }
+
+  /**
+   * @return the Z coordinate of a cell, given its key.
+   */
+  static int unpackZ(long key) {
+    return (int) ((key >>> VERTICAL_BITS) & ((1 << HORIZONTAL_BITS) - 1)) + MIN_HORIZONTAL;
+  }
+
+  /**
+   * Each cell's key. Slots whose {@link #values value} is {@code null} are empty.
+   */
+  private long[] keys;
+
+  /**
+   * Each cell, at the same index as its key.
+   */
+  private Object[] values;
+
+  /**
+   * The number of cells in the index.
+   */
+  private int size;
+
+  /**
+   * The number of cells that can be added before the table needs to grow.
+   */
+  private int threshold;
+
+  /**
+   * All the keys in ascending (XZY) order, or {@code null} if they've changed since the last time
+   * they were sorted.
+   */
+  private long[] sortedKeys;
+
+  CellIndex() {
+    allocate(16);
+  }
+
+  /**
+   * @return the number of cells in the index.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return whether the index has no cells.
+   */
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @return the cell with the provided key, or {@code null} if there is none.
+   */
+  Object get(long key) {
+    long[] keys = this.keys;
+    Object[] values = this.values;
+    int mask = values.length - 1;
+
+    for (int slot = slotOf(key, mask); ; slot = (slot + 1) & mask) {
+      Object value = values[slot];
+      if (value == null || keys[slot] == key) {
+        return value;
+      }
+    }
+  }
+
+  /**
+   * Adds a cell to the index, replacing any cell that already has the same key.
+   *
+   * @return the replaced cell, or {@code null} if there wasn't one.
+   */
+  Object put(long key, Object value) {
+    int mask = values.length - 1;
+
+    int slot = slotOf(key, mask);
+    for (; values[slot] != null; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        Object previous = values[slot];
+        values[slot] = value;
+        return previous;
+      }
+    }
+
+    keys[slot] = key;
+    values[slot] = value;
+    sortedKeys = null;
+
+    if (++size > threshold) {
+      allocate(values.length * 2);
+    }
+    return null;
+  }
+
+  /**
+   * Removes the cell with the provided key from the index.
+   *
+   * @return the removed cell, or {@code null} if there wasn't one.
+   */
+  Object remove(long key) {
+    int mask = values.length - 1;
+
+    int slot = slotOf(key, mask);
+    for (; values[slot] != null; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        Object previous = values[slot];
+        closeGap(slot, mask);
+
+        size--;
+        sortedKeys = null;
+        return previous;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the keys of every cell in ascending order, which is also XZY order. The array must not
+   * be modified.
+   */
+  long[] sortedKeys() {
+    long[] result = sortedKeys;
+    if (result == null) {
+      result = new long[size];
+
+      int i = 0;
+      for (int slot = 0; slot < values.length; slot++) {
+        if (values[slot] != null) {
+          result[i++] = keys[slot];
+        }
+      }
+      Arrays.sort(result);
+
+      sortedKeys = result;
+    }
+    return result;
+  }
+
+  /**
+   * Fills the hole left by a removed key, by shifting back any keys after it that would otherwise
+   * no longer be reachable from their ideal slot.
+   */
+  private void closeGap(int gap, int mask) {
+    for (int slot = (gap + 1) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+      int ideal = slotOf(keys[slot], mask);
+
+      // Move the key into the gap if the gap is between
+      // its ideal slot and its current one (cyclically).
+      if (((slot - ideal) & mask) >= ((slot - gap) & mask)) {
+        keys[gap] = keys[slot];
+        values[gap] = values[slot];
+        gap = slot;
+      }
+    }
+    values[gap] = null;
+  }
+
+  /**
+   * Replaces the table with an empty one of a different capacity, then moves all the existing cells
+   * into it.
+   *
+   * @param capacity The new table's length. Must be a power of two.
+   */
+  private void allocate(int capacity) {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+
+    keys = new long[capacity];
+    values = new Object[capacity];
+    threshold = (int) (capacity * LOAD_FACTOR);
+
+    if (oldValues != null) {
+      int mask = capacity - 1;
+      for (int i = 0; i < oldValues.length; i++) {
+        if (oldValues[i] != null) {
+          int slot = slotOf(oldKeys[i], mask);
+          while (values[slot] != null) {
+            slot = (slot + 1) & mask;
+          }
+          keys[slot] = oldKeys[i];
+          values[slot] = oldValues[i];
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the slot where a key would ideally be stored.
+   */
+  private static int slotOf(long key, int mask) {
+    // Fibonacci hashing spreads out neighbouring cells,
+    // whose keys often differ by only a few bits.
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+  }
+}
@@ -0,0 +1,79 @@
+package me.nullicorn.ooze.level;
+
+import java.util.function.BiFunction;
+
+/**
+ * A cell whose blocks are being changed one at a time, via {@link Level#setBlock(int, int, int,
+ * BlockState) setBlock()}. Blocks are changed in place, and the cell is only turned back into an
+ * immutable {@link Cell} once the level needs one, such as when it's saved.
+ *
+ * @author Nullicorn
+ */
+final class EditedCell {
+
+  private final MutablePackedUIntArray blocks;
+  private       Palette                palette;
+
+  /**
+   * An immutable copy of the cell, or {@code null} if it has been changed since one was last made.
+   */
+  private Cell snapshot;
+
+  /**
+   * Starts editing a copy of the {@code cell}. The cell itself is not changed.
+   */
+  EditedCell(Cell cell) {
+    blocks = cell.getBlocks().toMutable();
+    palette = cell.getPalette();
+  }
+
+  /**
+   * @return the palette that the cell currently uses.
+   */
+  Palette getPalette() {
+    return palette;
+  }
+
+  /**
+   * @return the state of the block at an index in the cell's block array.
+   * @throws IndexOutOfBoundsException if the block refers to a state that isn't in the palette.
+   */
+  BlockState getBlock(int index) {
+    return palette.get(blocks.get(index));
+  }
+
+  /**
+   * Changes the state of the block at an index in the cell's block array. If the cell's palette
+   * doesn't have the {@code state} yet, the cell switches to a palette that does.
+   *
+   * @param derivedPalettes Given the cell's current palette and the {@code state}, returns a
+   *                        palette with the same states at the same indices, followed by the
+   *                        {@code state}.
+   */
+  void setBlock(int index, BlockState state,
+      BiFunction<Palette, BlockState, Palette> derivedPalettes) {
+    int stateIndex = palette.indexOf(state);
+    if (stateIndex == -1) {
+      stateIndex = palette.size();
+      palette = derivedPalettes.apply(palette, state);
+    }
+
+    blocks.set(index, stateIndex);
+    snapshot = null;
+  }
+
+  /**
+   * @return an immutable cell with the same palette and blocks. The same instance is returned until
+   * the cell is next changed.
+   */
+  Cell toCell() {
+    // If two threads race here, they'll both make a copy.
+    // That's fine, since cells are immutable.
+    Cell cell = snapshot;
+    if (cell == null) {
+      cell = new Cell(palette, blocks.toImmutable());
+      snapshot = cell;
+    }
+    return cell;
+  }
+}
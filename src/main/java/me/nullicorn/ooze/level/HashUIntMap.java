@@ -0,0 +1,150 @@
+package me.nullicorn.ooze.level;
+
+import java.util.Arrays;
+
+/**
+ * A {@link UIntMap} that can hold any integer keys.
+ * <p><br>
+ * Entries are stored using open addressing with linear probing, so lookups don't allocate or box
+ * their keys, and take constant time on average.
+ *
+ * @author Nullicorn
+ */
+final class HashUIntMap implements UIntMap {
+
+  /**
+   * The fraction of slots that can be filled before the table grows.
+   */
+  private static final float LOAD_FACTOR = 0.5f;
+
+  /**
+   * Each entry's key. Slots whose {@link #values value} is {@code -1} are empty.
+   */
+  private int[] keys;
+
+  /**
+   * Each entry's value, at the same index as its key.
+   */
+  private int[] values;
+
+  /**
+   * The number of entries currently in the map.
+   */
+  private int size;
+
+  /**
+   * The number of entries that can be added before the table needs to grow.
+   */
+  private int threshold;
+
+  /**
+   * Creates a new map with an arbitrary initial capacity.
+   *
+   * @see #HashUIntMap(int)
+   */
+  public HashUIntMap() {
+    this(8);
+  }
+
+  /**
+   * Creates a new map that can hold up to a certain number of entries before growing internally.
+   * <p><br>
+   * This does not change the map's behavior, but allows memory to be saved if the required number
+   * of entries is known beforehand.
+   */
+  public HashUIntMap(int initialCapacity) {
+    if (initialCapacity < 0) {
+      throw new IllegalArgumentException("initialCapacity cannot be negative: " + initialCapacity);
+    } else if (initialCapacity > (1 << 29)) {
+      throw new IllegalArgumentException("initialCapacity is too large: " + initialCapacity);
+    }
+
+    // Smallest power of two that stays within the load factor.
+    int tableSize = Math.max(2, Integer.highestOneBit(Math.max(1, initialCapacity * 2 - 1)) << 1);
+    allocate(tableSize);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public int get(int key) {
+    int[] keys = this.keys;
+    int[] values = this.values;
+    int mask = values.length - 1;
+
+    for (int slot = slotOf(key, mask); ; slot = (slot + 1) & mask) {
+      int value = values[slot];
+      if (value == -1 || keys[slot] == key) {
+        return value;
+      }
+    }
+  }
+
+  @Override
+  public int set(int key, int value) {
+    if (value < 0) {
+      throw new IllegalArgumentException(value + " is not allowed in an unsigned map");
+    }
+
+    int mask = values.length - 1;
+
+    int slot = slotOf(key, mask);
+    for (; values[slot] != -1; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        int oldValue = values[slot];
+        values[slot] = value;
+        return oldValue;
+      }
+    }
+
+    keys[slot] = key;
+    values[slot] = value;
+
+    if (++size > threshold) {
+      allocate(values.length * 2);
+    }
+    return -1;
+  }
+
+  /**
+   * Replaces the table with an empty one of a different capacity, then moves all the existing
+   * entries into it.
+   *
+   * @param capacity The new table's length. Must be a power of two.
+   */
+  private void allocate(int capacity) {
+    int[] oldKeys = keys;
+    int[] oldValues = values;
+
+    keys = new int[capacity];
+    values = new int[capacity];
+    Arrays.fill(values, -1);
+    threshold = (int) (capacity * LOAD_FACTOR);
+
+    if (oldValues != null) {
+      int mask = capacity - 1;
+      for (int i = 0; i < oldValues.length; i++) {
+        if (oldValues[i] != -1) {
+          int slot = slotOf(oldKeys[i], mask);
+          while (values[slot] != -1) {
+            slot = (slot + 1) & mask;
+          }
+          keys[slot] = oldKeys[i];
+          values[slot] = oldValues[i];
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the slot where a key would ideally be stored. Keys are scrambled first so that runs of
+   * consecutive keys don't cluster.
+   */
+  private static int slotOf(int key, int mask) {
+    int hash = key * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+}
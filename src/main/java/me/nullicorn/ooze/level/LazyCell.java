@@ -0,0 +1,84 @@
+package me.nullicorn.ooze.level;
+
+import com.github.ooze.protos.CellData;
+import java.lang.ref.SoftReference;
+import java.util.Map;
+
+/**
+ * A placeholder for a {@link Cell} that has not been decoded from its ProtoBuf form yet. The cell
+ * is only decoded the first time it is {@link #get() needed}.
+ *
+ * @author Nullicorn
+ * @see Level.CellLoading
+ */
+final class LazyCell {
+
+  private final CellData             proto;
+  private final Palette              palette;
+  private final Map<String, Palette> palettesByName;
+  private final boolean              isEvictable;
+
+  /**
+   * The decoded cell, or {@code null} if it hasn't been decoded yet. If the cell {@link
+   * #isEvictable is evictable}, this is a {@link SoftReference} to the cell instead.
+   */
+  private volatile Object decoded;
+
+  /**
+   * @param proto          The cell's undecoded form.
+   * @param palettesByName The palettes that the cell may refer to, keyed by name.
+   * @param isEvictable    Whether the decoded cell can be discarded by the garbage collector when
+   *                       memory is low. If so, it will be decoded again the next time it's
+   *                       needed.
+   * @throws IllegalArgumentException if the cell's palette is not in the {@code palettesByName}.
+   */
+  LazyCell(CellData proto, Map<String, Palette> palettesByName, boolean isEvictable) {
+    this.proto = proto;
+    this.palette = palettesByName.get(proto.getPaletteName());
+    this.palettesByName = palettesByName;
+    this.isEvictable = isEvictable;
+
+    // Check this now, rather than whenever the cell
+    // happens to be decoded.
+    if (palette == null) {
+      throw new IllegalArgumentException("Unknown palette: \"" + proto.getPaletteName() + "\"");
+    }
+  }
+
+  /**
+   * @return the decoded cell.
+   * @throws IllegalArgumentException if the cell is malformed.
+   */
+  Cell get() {
+    Object decoded = this.decoded;
+
+    Cell cell = (decoded instanceof SoftReference)
+        ? (Cell) ((SoftReference<?>) decoded).get()
+        : (Cell) decoded;
+
+    // If two threads race here, they'll both decode the
+    // cell. That's fine, since cells are immutable.
+    if (cell == null) {
+      cell = Cell.fromProto(proto, palettesByName);
+      this.decoded = isEvictable
+          ? new SoftReference<>(cell)
+          : cell;
+    }
+
+    return cell;
+  }
+
+  /**
+   * @return the palette used by the cell, without decoding the cell.
+   */
+  Palette getPalette() {
+    return palette;
+  }
+
+  /**
+   * @return the cell's ProtoBuf form, exactly as it was provided. The cell is not decoded.
+   */
+  CellData toProto() {
+    return proto;
+  }
+}
@@ -1,17 +1,30 @@
 package me.nullicorn.ooze.level;
 
+import com.github.ooze.protos.CellData;
 import com.github.ooze.protos.LevelData;
 import com.github.ooze.protos.LevelData.Builder;
 import com.github.ooze.protos.LevelData.Coordinates;
 import com.github.ooze.protos.LevelData.Dimensions;
+import com.github.ooze.protos.PaletteData;
 import com.google.protobuf.ByteString;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.NavigableMap;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import me.nullicorn.nedit.type.NBTCompound;
 import me.nullicorn.nedit.type.NBTList;
 import me.nullicorn.nedit.type.TagType;
@@ -22,45 +35,227 @@ import me.nullicorn.ooze.level.nbt.NbtHelper;
  * "cells". Each cell is 16 blocks long, meaning a cell hold 4096 blocks total. The level also holds
  * information about the entities and block entities in the level, as well as any persistent
  * metadata that the user wishes to store.
+ * <p><br>
+ * Reading a level's blocks and cells doesn't change it, so any number of threads can do so at once.
+ * Anything that changes the level, including saving it, must not happen at the same time as any
+ * other access.
  *
  * @author Nullicorn
  */
 public class Level {
 
   /**
-   * A comparator for putting coordinates in XZY order, which is how cells should be sorted.
+   * The number of cells that are decoded or encoded together in a single task by {@link
+   * #fromProto(LevelData, Executor) fromProto()} and {@link #toProto(Executor) toProto()}. Large
+   * enough that scheduling is cheap compared to the work itself, but small enough that work is
+   * spread evenly between threads.
    */
-  private static final Comparator<Coordinates> CELL_SORT = Comparator
-      .comparingInt(Coordinates::getX)
-      .thenComparingInt(Coordinates::getZ)
-      .thenComparingInt(Coordinates::getY);
+  private static final int CELLS_PER_TASK = 256;
 
   /**
-   * Helper function for creating a {@link Coordinates} object without using the builder.
+   * The number of NBT compounds (such as entities) that are encoded together in a single task by
+   * {@link #toProto(Executor) toProto()}.
    */
-  private static Coordinates createCoordinates(int x, int y, int z) {
-    return Coordinates.newBuilder().setX(x).setY(y).setZ(z).build();
+  private static final int NBT_PER_TASK = 64;
+
+  /**
+   * A factory for converting levels from their ProtoBuf form. Cells and palettes are decoded in
+   * parallel using the {@link ForkJoinPool#commonPool() common pool}.
+   *
+   * @see #fromProto(LevelData, Executor, CellLoading)
+   */
+  public static Level fromProto(LevelData proto) throws IOException {
+    return fromProto(proto, ForkJoinPool.commonPool(), CellLoading.EAGER);
   }
 
   /**
-   * Helper function for getting a cell's index in the population bit field, given the level's size
-   * and origin.
+   * A factory for converting levels from their ProtoBuf form. Palettes, and cells if they are
+   * loaded {@link CellLoading#EAGER eagerly}, are decoded in parallel using the {@link
+   * ForkJoinPool#commonPool() common pool}.
    *
-   * @apiNote All three parameters are measured in 16-block units.
+   * @see #fromProto(LevelData, Executor, CellLoading)
    */
-  private static int indexOfCellAt(Coordinates location, Coordinates origin, Dimensions levelSize) {
-    int xOffset = location.getX() - origin.getX();
-    int yOffset = location.getY() - origin.getY();
-    int zOffset = location.getZ() - origin.getZ();
-    return (xOffset * levelSize.getDepth() * levelSize.getHeight())
-           + (zOffset * levelSize.getHeight())
-           + yOffset;
+  public static Level fromProto(LevelData proto, CellLoading cellLoading) throws IOException {
+    return fromProto(proto, ForkJoinPool.commonPool(), cellLoading);
   }
 
   /**
-   * The level's blocks, stored in 16-wide cubes.
+   * A factory for converting levels from their ProtoBuf form. All cells are decoded {@link
+   * CellLoading#EAGER eagerly}.
+   *
+   * @see #fromProto(LevelData, Executor, CellLoading)
    */
-  private final NavigableMap<Coordinates, Cell> cells;
+  public static Level fromProto(LevelData proto, Executor executor) throws IOException {
+    return fromProto(proto, executor, CellLoading.EAGER);
+  }
+
+  /**
+   * A factory for converting levels from their ProtoBuf form.
+   * <p><br>
+   * Each palette is decoded once, and then shared by every cell that refers to it by name. Cells
+   * are either decoded in batches on the provided {@code executor}, so that loading time scales
+   * with the number of threads it has, or left undecoded until they're needed, depending on the
+   * {@code cellLoading} strategy. The resulting level is the same no matter which executor or
+   * strategy is used.
+   *
+   * @param proto       The level to convert.
+   * @param executor    Where palettes and cells should be decoded. Use {@code Runnable::run} to
+   *                    decode everything on the calling thread.
+   * @param cellLoading When the level's cells should be decoded.
+   * @throws IOException              if any of the level's arbitrary data could not be NBT-decoded
+   *                                  (e.g. metadata, entities, block states, etc).
+   * @throws IllegalArgumentException if any of the arguments are {@code null}, if the number of
+   *                                  cells does not match the level's population, if two palettes
+   *                                  share a name, if a cell refers to an unknown palette, or if a
+   *                                  cell is malformed. Malformed cells that are loaded lazily are
+   *                                  only detected when they are decoded.
+   */
+  public static Level fromProto(LevelData proto, Executor executor, CellLoading cellLoading)
+      throws IOException {
+    if (proto == null) {
+      throw new IllegalArgumentException("null proto cannot be converted to a level");
+    } else if (executor == null) {
+      throw new IllegalArgumentException("null executor cannot be used to decode level");
+    } else if (cellLoading == null) {
+      throw new IllegalArgumentException("null cell loading strategy cannot be used");
+    }
+
+    Level level = new Level();
+
+    // Start decoding the palettes in the background,
+    // since nothing else depends on them yet.
+    List<CompletableFuture<Palette>> paletteTasks = new ArrayList<>();
+    for (PaletteData paletteProto : proto.getPalettesList()) {
+      paletteTasks.add(CompletableFuture.supplyAsync(() -> {
+        try {
+          return Palette.fromProto(paletteProto);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }, executor));
+    }
+
+    // Meanwhile, decode the level's arbitrary NBT data.
+    // Entities & block entities are only decoded once
+    // they're used, and are otherwise saved as-is.
+    level.metadata.putAll(NbtHelper.decodeFromBytes(proto.getMetadata()));
+    for (ByteString entity : proto.getEntitiesList()) {
+      level.entities.add(NbtHelper.decodeLazily(entity));
+    }
+    for (ByteString blockEntity : proto.getBlockEntitiesList()) {
+      level.blockEntities.add(NbtHelper.decodeLazily(blockEntity));
+    }
+
+    // Figure out where each cell goes, based on which
+    // bits in the population are set.
+    long[] locations = locateCells(proto);
+
+    Map<String, Palette> palettesByName = new HashMap<>();
+    for (CompletableFuture<Palette> paletteTask : paletteTasks) {
+      Palette palette = join(paletteTask);
+      if (palettesByName.put(palette.getName(), palette) != null) {
+        throw new IllegalArgumentException("palette name \"" + palette.getName() + "\" is not unique");
+      }
+    }
+
+    List<CellData> cellProtos = proto.getCellsList();
+
+    // Leave the cells undecoded if they should be loaded
+    // lazily.
+    if (cellLoading != CellLoading.EAGER) {
+      boolean isEvictable = cellLoading == CellLoading.LAZY_EVICTABLE;
+      for (int i = 0; i < locations.length; i++) {
+        LazyCell cell = new LazyCell(cellProtos.get(i), palettesByName, isEvictable);
+        level.cells.put(locations[i], cell);
+      }
+      return level;
+    }
+
+    // Otherwise decode them in batches.
+    Cell[] cells = new Cell[cellProtos.size()];
+    List<CompletableFuture<Void>> cellTasks = new ArrayList<>();
+    for (int start = 0; start < cells.length; start += CELLS_PER_TASK) {
+      int from = start;
+      int to = Math.min(start + CELLS_PER_TASK, cells.length);
+
+      cellTasks.add(CompletableFuture.runAsync(() -> {
+        for (int i = from; i < to; i++) {
+          cells[i] = Cell.fromProto(cellProtos.get(i), palettesByName);
+        }
+      }, executor));
+    }
+    for (CompletableFuture<Void> cellTask : cellTasks) {
+      join(cellTask);
+    }
+
+    for (int i = 0; i < cells.length; i++) {
+      level.cells.put(locations[i], cells[i]);
+    }
+
+    return level;
+  }
+
+  /**
+   * Helper function for decoding a level's population bit field.
+   *
+   * @return the {@link CellIndex#pack(int, int, int) packed} coordinates of each cell in the level,
+   * in the same order as the proto's cells.
+   * @throws IllegalArgumentException if the number of cells in the {@code proto} does not match the
+   *                                  number of bits set in its population, if any bits are set
+   *                                  outside the level's bounds, or if any cells are outside the
+   *                                  range supported by {@link CellIndex}.
+   */
+  private static long[] locateCells(LevelData proto) {
+    Coordinates origin = proto.getOrigin();
+    Dimensions size = proto.getSize();
+    long populationSize = (long) size.getWidth() * size.getDepth() * size.getHeight();
+
+    BitSet population = BitSet.valueOf(proto.getPopulation().asReadOnlyByteBuffer());
+    if (population.length() > populationSize) {
+      throw new IllegalArgumentException("Population has cells outside the level's bounds");
+    } else if (population.cardinality() != proto.getCellsCount()) {
+      throw new IllegalArgumentException("Population has " + population.cardinality()
+                                         + " cells, but " + proto.getCellsCount() + " were found");
+    }
+
+    long[] locations = new long[proto.getCellsCount()];
+    int i = 0;
+    for (int index = population.nextSetBit(0); index >= 0;
+        index = population.nextSetBit(index + 1)) {
+      locations[i++] = LevelLayout.locationOf(index, origin, size);
+    }
+
+    return locations;
+  }
+
+  /**
+   * Waits for a task started by {@link #fromProto(LevelData, Executor) fromProto()} or {@link
+   * #toProto(Executor) toProto()} to finish, rethrowing any exception it failed with.
+   *
+   * @throws IOException if the task failed because of an {@link UncheckedIOException}.
+   */
+  private static <T> T join(CompletableFuture<T> task) throws IOException {
+    try {
+      return task.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) cause).getCause();
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * The level's blocks, stored in 16-wide cubes. Each value is either a {@link Cell}, a {@link
+   * LazyCell} if the cell hasn't been decoded yet, or an {@link EditedCell} if its blocks are being
+   * changed via {@link #setBlock(int, int, int, BlockState) setBlock()}.
+   */
+  private final CellIndex cells;
 
   /**
    * Custom NBT data related to the level. Could include things like creation date, level-specific
@@ -79,11 +274,63 @@ public class Level {
    */
   private final NBTList blockEntities;
 
+  /**
+   * The last cell that each thread accessed via {@link #getBlock(int, int, int) getBlock()} or
+   * {@link #setBlock(int, int, int, BlockState) setBlock()}. Most block accesses are close to the
+   * previous one, so this saves looking up the same cell over and over.
+   */
+  private final ThreadLocal<CellCursor> cursors;
+
+  /**
+   * The number of times a cell has been set or cleared. Used to tell whether a {@link CellCursor}
+   * is out of date.
+   */
+  private int modCount;
+
+  /**
+   * The canonical instance of each distinct cell in the level, or {@code null} if cells aren't
+   * being {@link #setDeduplicatingCells(boolean) deduplicated}. Cells are held weakly, so that
+   * ones no longer in the level can be forgotten.
+   */
+  private Map<Cell, WeakReference<Cell>> canonicalCells;
+
+  /**
+   * The level's data as of the last time it was encoded, or {@code null} if {@link
+   * #setSavingIncrementally(boolean) incremental saving} is disabled.
+   */
+  private EncodingCache encodingCache;
+
+  /**
+   * Whether block state properties are saved in a {@link #setCompactingProperties(boolean) compact
+   * format} when possible.
+   */
+  private boolean isCompactingProperties;
+
+  /**
+   * The name of every palette that has been used in the level since {@link #newPaletteName()} was
+   * first called, or {@code null} if it hasn't been yet. Names are never removed, even if their
+   * palette is no longer used.
+   */
+  private Set<String> paletteNames;
+
+  /**
+   * The number that {@link #newPaletteName()} will try next.
+   */
+  private int nextPaletteNumber;
+
+  /**
+   * Every palette that {@link #derivedPalette(Palette, BlockState)} has made, keyed by the palette
+   * it was copied from, and then by the state that was added. Original palettes are held weakly, so
+   * that ones no longer in the level can be forgotten.
+   */
+  private Map<Palette, Map<BlockState, Palette>> derivedPalettes;
+
   public Level() {
-    cells = new TreeMap<>(CELL_SORT);
+    cells = new CellIndex();
     metadata = new NBTCompound();
     entities = new NBTList(TagType.COMPOUND);
     blockEntities = new NBTList(TagType.COMPOUND);
+    cursors = ThreadLocal.withInitial(CellCursor::new);
   }
 
   /**
@@ -91,7 +338,176 @@ public class Level {
    * @apiNote Coordinates use units of 16 blocks, which is the size of a cell (on all sides).
    */
   public Cell getCell(int x, int y, int z) {
-    return cells.get(createCoordinates(x, y, z));
+    if (!CellIndex.isInRange(x, y, z)) {
+      return null;
+    }
+
+    long key = CellIndex.pack(x, y, z);
+    Object cell = cells.get(key);
+    if (cell instanceof LazyCell) {
+      return ((LazyCell) cell).get();
+    } else if (cell instanceof EditedCell) {
+      // Only a copy, so that reading the cell doesn't
+      // change the level.
+      return ((EditedCell) cell).toCell();
+    }
+    return (Cell) cell;
+  }
+
+  /**
+   * @return the state of the block at those coordinates in the level, or {@code null} if there is
+   * no cell there.
+   * @throws IndexOutOfBoundsException if the block refers to a state that isn't in its cell's
+   *                                   palette.
+   * @apiNote Coordinates use units of 1 block.
+   */
+  public BlockState getBlock(int x, int y, int z) {
+    Object cell = getCellUsingCursor(x >> 4, y >> 4, z >> 4);
+    if (cell instanceof EditedCell) {
+      return ((EditedCell) cell).getBlock(((x & 15) << 8) | ((z & 15) << 4) | (y & 15));
+    }
+    return cell == null
+        ? null
+        : ((Cell) cell).getBlock(x & 15, y & 15, z & 15);
+  }
+
+  /**
+   * Changes the state of a single block in the level.
+   * <p><br>
+   * If there's no cell at that location yet, an {@link Cell#empty() empty} one is added first. If
+   * the cell's palette doesn't contain the {@code state}, the cell is given a copy of its palette
+   * with the state added to the end. That palette is given a name that no other palette in the
+   * level uses, and is shared by any other cells that gain the same state from the same palette.
+   * <p><br>
+   * The cell's blocks are changed in place, so setting many blocks in the same cell is cheap. The
+   * cell is only turned back into an immutable {@link Cell}, and {@link
+   * #setDeduplicatingCells(boolean) deduplicated} if enabled, when the level is saved. Until then,
+   * {@link #getCell(int, int, int) getCell()} returns a copy of the cell as it currently is.
+   *
+   * @param state The block's new state.
+   * @throws IllegalArgumentException if the {@code state} is {@code null}, or if the coordinates
+   *                                  are outside the range supported by {@link #setCell(int, int,
+   *                                  int, Cell) setCell()}.
+   * @apiNote Coordinates use units of 1 block.
+   */
+  public void setBlock(int x, int y, int z, BlockState state) {
+    if (state == null) {
+      throw new IllegalArgumentException("null state cannot be added to level");
+    }
+
+    int cellX = x >> 4;
+    int cellY = y >> 4;
+    int cellZ = z >> 4;
+
+    Object cell = getCellUsingCursor(cellX, cellY, cellZ);
+    EditedCell edited;
+    if (cell instanceof EditedCell) {
+      edited = (EditedCell) cell;
+    } else {
+      long key = CellIndex.pack(cellX, cellY, cellZ);
+      edited = new EditedCell(cell == null
+          ? Cell.empty()
+          : (Cell) cell);
+
+      cells.put(key, edited);
+      modCount++;
+      cursors.get().moveTo(key, edited, modCount);
+    }
+
+    edited.setBlock(((x & 15) << 8) | ((z & 15) << 4) | (y & 15), state, this::derivedPalette);
+  }
+
+  /**
+   * @return a copy of the {@code palette} with the {@code state} added to the end, under a new name.
+   * Each time the same state is added to the same palette, the same copy is returned.
+   */
+  private Palette derivedPalette(Palette palette, BlockState state) {
+    if (derivedPalettes == null) {
+      derivedPalettes = new WeakHashMap<>();
+    }
+
+    Map<BlockState, Palette> derived = derivedPalettes
+        .computeIfAbsent(palette, original -> new HashMap<>());
+    Palette result = derived.get(state);
+    if (result == null) {
+      PaletteBuilder builder = new PaletteBuilder(newPaletteName(), palette);
+      builder.add(state);
+      result = builder.build();
+      derived.put(state, result);
+    }
+    return result;
+  }
+
+  /**
+   * @return a name for a new palette, which no other palette in the level uses.
+   */
+  private String newPaletteName() {
+    if (paletteNames == null) {
+      paletteNames = new HashSet<>();
+      for (long key : cells.sortedKeys()) {
+        Object cell = cells.get(key);
+        if (cell instanceof LazyCell) {
+          paletteNames.add(((LazyCell) cell).getPalette().getName());
+        } else if (cell instanceof EditedCell) {
+          paletteNames.add(((EditedCell) cell).getPalette().getName());
+        } else {
+          paletteNames.add(((Cell) cell).getPalette().getName());
+        }
+      }
+    }
+
+    String name;
+    do {
+      name = "ooze:edited_" + nextPaletteNumber++;
+    } while (!paletteNames.add(name));
+    return name;
+  }
+
+  /**
+   * Replaces a cell that was being {@link EditedCell edited} with an immutable copy of it.
+   *
+   * @return the copy.
+   */
+  private Cell finishEditing(long key, EditedCell edited) {
+    Cell cell = edited.toCell();
+    if (canonicalCells != null) {
+      cell = canonicalize(cell);
+    }
+
+    cells.put(key, cell);
+    modCount++;
+    return cell;
+  }
+
+  /**
+   * Similar to {@link #getCell(int, int, int) getCell()}, but the current thread's {@link
+   * CellCursor} is checked first, and then moved to the cell. Cells that are being edited are
+   * returned as-is.
+   *
+   * @return the {@link Cell} or {@link EditedCell} at those coordinates, or {@code null} if there
+   * is none.
+   */
+  private Object getCellUsingCursor(int x, int y, int z) {
+    if (!CellIndex.isInRange(x, y, z)) {
+      return null;
+    }
+
+    long key = CellIndex.pack(x, y, z);
+    CellCursor cursor = cursors.get();
+    Object cell = cursor.get(key, modCount);
+    if (cell != null) {
+      return cell;
+    }
+
+    cell = cells.get(key);
+    if (cell instanceof LazyCell) {
+      cell = ((LazyCell) cell).get();
+    }
+
+    if (cell != null) {
+      cursor.moveTo(key, cell, modCount);
+    }
+    return cell;
   }
 
   /**
@@ -99,7 +515,9 @@ public class Level {
    * operation will overwrite them.
    *
    * @param cell The blocks to put at that location.
-   * @throws IllegalArgumentException if the {@code cell} is {@code null}.
+   * @throws IllegalArgumentException if the {@code cell} is {@code null}, or if the coordinates are
+   *                                  out of range. X and Z must fit in 24 bits, and Y in 16 bits,
+   *                                  all signed.
    * @apiNote Coordinates use units of 16 blocks, which is the size of a cell (on all sides).
    */
   public void setCell(int x, int y, int z, Cell cell) {
@@ -107,7 +525,76 @@ public class Level {
       throw new IllegalArgumentException("null cell cannot be added to level");
     }
 
-    cells.put(createCoordinates(x, y, z), cell);
+    if (canonicalCells != null) {
+      cell = canonicalize(cell);
+    }
+
+    cells.put(CellIndex.pack(x, y, z), cell);
+    modCount++;
+
+    if (paletteNames != null) {
+      paletteNames.add(cell.getPalette().getName());
+    }
+  }
+
+  /**
+   * @return whether identical cells in the level share the same instance.
+   * @see #setDeduplicatingCells(boolean)
+   */
+  public boolean isDeduplicatingCells() {
+    return canonicalCells != null;
+  }
+
+  /**
+   * Sets whether identical cells in the level should share the same instance, to save memory.
+   * <p><br>
+   * While enabled, any cell that is {@link #setCell(int, int, int, Cell) set} is replaced with an
+   * {@link Cell#equals(Object) equal} one that's already in the level, if there is one. When first
+   * enabled, the same is done for all the cells already in the level, except ones that haven't been
+   * {@link CellLoading lazily} decoded yet.
+   * <p><br>
+   * This is most effective for levels with many repeated cells, such as solid terrain, empty sky,
+   * or copies of the same structure. Because cells are immutable, sharing them is not observable
+   * besides their identity.
+   */
+  public void setDeduplicatingCells(boolean isEnabled) {
+    if (isEnabled == isDeduplicatingCells()) {
+      return;
+    } else if (!isEnabled) {
+      canonicalCells = null;
+      return;
+    }
+
+    canonicalCells = new WeakHashMap<>();
+    for (long key : cells.sortedKeys()) {
+      Object cell = cells.get(key);
+      if (cell instanceof Cell) {
+        Cell canonical = canonicalize((Cell) cell);
+        if (canonical != cell) {
+          cells.put(key, canonical);
+        }
+      }
+    }
+    modCount++;
+  }
+
+  /**
+   * @return the instance of the cell that should be used in the level, if {@link #canonicalCells
+   * deduplication} is enabled. This is either an equal cell already in the level, or the cell
+   * itself.
+   */
+  private Cell canonicalize(Cell cell) {
+    WeakReference<Cell> existingRef = canonicalCells.get(cell);
+    Cell existing = (existingRef == null)
+        ? null
+        : existingRef.get();
+
+    if (existing != null) {
+      return existing;
+    }
+
+    canonicalCells.put(cell, new WeakReference<>(cell));
+    return cell;
   }
 
   /**
@@ -118,7 +605,10 @@ public class Level {
    * @apiNote Coordinates use units of 16 blocks, which is the size of a cell (on all sides).
    */
   public void clearCell(int x, int y, int z) {
-    cells.remove(createCoordinates(x, y, z));
+    if (CellIndex.isInRange(x, y, z)) {
+      cells.remove(CellIndex.pack(x, y, z));
+      modCount++;
+    }
   }
 
   /**
@@ -144,72 +634,351 @@ public class Level {
   }
 
   /**
-   * @return a Protocol Buffer containing all the same information as the level itself.
+   * @return whether the level keeps its encoded data between calls to {@link #toProto(Executor)
+   * toProto()}.
+   * @see #setSavingIncrementally(boolean)
+   */
+  public boolean isSavingIncrementally() {
+    return encodingCache != null;
+  }
+
+  /**
+   * Sets whether the level should keep its encoded data between calls to {@link
+   * #toProto(Executor) toProto()}, so that only the parts that changed since the last call are
+   * encoded again.
+   * <p><br>
+   * Cells are immutable, so a cell is only encoded again if a different one is {@link #setCell(int,
+   * int, int, Cell) set} in its place. The same goes for palettes. The level's {@link #getMetadata()
+   * metadata}, {@link #getEntities() entities}, and {@link #getBlockEntities() block entities} can
+   * be modified at any time, which can't be detected, so they are always encoded again. Entities
+   * that were never decoded since the level was loaded still reuse their original bytes, though.
+   * <p><br>
+   * This suits levels that are saved often, but where little changes between saves. While enabled,
+   * the level uses roughly twice as much memory, since each cell is also kept in its encoded form.
+   */
+  public void setSavingIncrementally(boolean isEnabled) {
+    if (isEnabled != isSavingIncrementally()) {
+      encodingCache = isEnabled
+          ? new EncodingCache()
+          : null;
+    }
+  }
+
+  /**
+   * @return whether block state properties are saved in a compact format when possible.
+   * @see #setCompactingProperties(boolean)
+   */
+  public boolean isCompactingProperties() {
+    return isCompactingProperties;
+  }
+
+  /**
+   * Sets whether the block states in the level's palettes should be saved with their properties in
+   * a {@link BlockState#toProto(boolean) compact format} when possible, instead of NBT. This applies
+   * to {@link #toProto(Executor) toProto()}, {@link LevelWriter}, and {@link LevelFile}.
+   * <p><br>
+   * The compact format is smaller and faster to read, but only newer versions of this library can
+   * read it. Readers that expect properties to be NBT, such as older versions, will fail to load
+   * levels saved this way. For that reason, it's disabled by default. Levels saved either way can
+   * be loaded by {@link #fromProto(LevelData) fromProto()}.
+   */
+  public void setCompactingProperties(boolean isEnabled) {
+    if (isEnabled != isCompactingProperties) {
+      isCompactingProperties = isEnabled;
+
+      // Palettes that were already encoded used the other
+      // format.
+      if (encodingCache != null) {
+        encodingCache.encodedPalettes = new IdentityHashMap<>();
+      }
+    }
+  }
+
+  /**
+   * @return a Protocol Buffer containing all the same information as the level itself. Everything
+   * is encoded on the calling thread.
    * @throws IOException if any of the level's arbitrary data cannot be NBT-encoded (e.g. metadata,
    *                     entities, block states, etc).
+   * @see #toProto(Executor)
+   * @see LevelWriter
    */
   public LevelData toProto() throws IOException {
-    Builder builder = LevelData.newBuilder();
+    return toProto(Runnable::run);
+  }
 
-    // Custom info about the level.
-    builder.setMetadata(NbtHelper.encodeToBytes(metadata));
+  /**
+   * Converts the level to its ProtoBuf form, using an {@code executor} to encode its cells,
+   * palettes, and NBT data in parallel.
+   * <p><br>
+   * The result is identical to that of {@link #toProto()}, no matter which executor is used. Only
+   * the encoding itself is parallel; the level's layout (bounds, population, and which palettes are
+   * used) is determined beforehand, on the calling thread.
+   * <p><br>
+   * The level must not be modified until this method returns.
+   *
+   * @param executor Where the level's data should be encoded.
+   * @throws IOException              if any of the level's arbitrary data cannot be NBT-encoded
+   *                                  (e.g. metadata, entities, block states, etc).
+   * @throws IllegalArgumentException if the {@code executor} is {@code null}.
+   * @throws IllegalStateException    if two different palettes in the level have the same name, or
+   *                                  if the level is too large to encode.
+   */
+  public LevelData toProto(Executor executor) throws IOException {
+    if (executor == null) {
+      throw new IllegalArgumentException("null executor cannot be used to encode level");
+    }
 
-    // Regular entities (mobs, objects, etc).
-    for (Object entity : entities) {
-      builder.addEntities(NbtHelper.encodeToBytes((NBTCompound) entity));
+    // Cells & palettes that haven't changed since the last
+    // save can be reused as-is.
+    EncodingCache cache = encodingCache;
+
+    // Start encoding the level's arbitrary NBT data, since
+    // it doesn't depend on anything else. It may have been
+    // modified through its getters, so it's never cached.
+    ByteString[] encodedMetadata = new ByteString[1];
+    ByteString[] encodedEntities = new ByteString[entities.size()];
+    ByteString[] encodedBlockEntities = new ByteString[blockEntities.size()];
+    CompletableFuture<Void> nbtTask = CompletableFuture.allOf(
+        encodeAsync(Collections.singletonList(metadata), encodedMetadata, executor),
+        encodeAsync(entities, encodedEntities, executor),
+        encodeAsync(blockEntities, encodedBlockEntities, executor));
+
+    // Decide where everything goes up front, so that the
+    // order things are encoded in doesn't matter.
+    LevelLayout layout = layout();
+
+    // Cells that appear more than once are only encoded
+    // once. The format has no way to refer to another
+    // cell, so the proto itself is still repeated.
+    Map<Cell, Integer> cellsToEncode = new IdentityHashMap<>();
+    List<Cell> distinctCells = new ArrayList<>();
+
+    // Each cell's proto, in the same order as the layout.
+    // Cells that were never decoded can reuse their
+    // original proto. The rest are filled in below.
+    CellData[] cellProtos = new CellData[layout.cells.length];
+    int[] encodedCellIndices = new int[layout.cells.length];
+
+    for (int i = 0; i < layout.cells.length; i++) {
+      Object cell = layout.cells[i];
+      if (cell instanceof LazyCell) {
+        cellProtos[i] = ((LazyCell) cell).toProto();
+      } else if (cache != null && cache.encodedCells.containsKey(cell)) {
+        cellProtos[i] = cache.encodedCells.get(cell);
+      } else {
+        Integer encodedIndex = cellsToEncode.get(cell);
+        if (encodedIndex == null) {
+          encodedIndex = distinctCells.size();
+          cellsToEncode.put((Cell) cell, encodedIndex);
+          distinctCells.add((Cell) cell);
+        }
+        encodedCellIndices[i] = encodedIndex;
+      }
     }
 
-    // Block entities (aka tile entities).
-    for (Object blockEntity : blockEntities) {
-      builder.addBlockEntities(NbtHelper.encodeToBytes((NBTCompound) blockEntity));
+    // Encode the palettes & distinct cells in parallel.
+    List<CompletableFuture<PaletteData>> paletteTasks = new ArrayList<>(layout.palettes.size());
+    for (Palette palette : layout.palettes) {
+      PaletteData encodedPalette = (cache != null)
+          ? cache.encodedPalettes.get(palette)
+          : null;
+      if (encodedPalette != null) {
+        paletteTasks.add(CompletableFuture.completedFuture(encodedPalette));
+        continue;
+      }
+
+      paletteTasks.add(CompletableFuture.supplyAsync(() -> {
+        try {
+          return palette.toProto(isCompactingProperties);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }, executor));
     }
 
-    // Determine the level's size using the
-    // distance between the farthest two cells.
-    Coordinates origin = cells.firstKey();
-    Coordinates farthest = cells.lastKey();
-    Dimensions size = Dimensions.newBuilder()
-        .setWidth(farthest.getX() - origin.getX())
-        .setDepth(farthest.getZ() - origin.getZ())
-        .setHeight(farthest.getY() - origin.getY())
-        .build();
+    CellData[] encodedCells = new CellData[distinctCells.size()];
+    List<CompletableFuture<Void>> cellTasks = new ArrayList<>();
+    for (int start = 0; start < encodedCells.length; start += CELLS_PER_TASK) {
+      int from = start;
+      int to = Math.min(start + CELLS_PER_TASK, encodedCells.length);
 
-    // Where & how big the level is.
-    builder.setOrigin(origin);
-    builder.setSize(size);
+      cellTasks.add(CompletableFuture.runAsync(() -> {
+        for (int i = from; i < to; i++) {
+          encodedCells[i] = distinctCells.get(i).toProto();
+        }
+      }, executor));
+    }
 
-    // Determine which cells have blocks in them.
-    int populationSize = size.getWidth() * size.getDepth() * size.getHeight();
-    BitSet population = new BitSet(populationSize);
-    Map<String, Palette> palettesByName = new HashMap<>();
+    // Put everything together, always in the same order.
+    Builder builder = LevelData.newBuilder();
+
+    join(nbtTask);
+
+    // Custom info about the level.
+    builder.setMetadata(encodedMetadata[0]);
 
-    cells.forEach((location, cell) -> {
-      // Mark the cell as populated.
-      int cellIndex = indexOfCellAt(location, origin, size);
-      population.set(cellIndex, true);
+    // Regular entities (mobs, objects, etc).
+    builder.addAllEntities(Arrays.asList(encodedEntities));
 
-      // Add the cell to the level.
-      builder.addCells(cell.toProto());
+    // Block entities (aka tile entities).
+    builder.addAllBlockEntities(Arrays.asList(encodedBlockEntities));
 
-      // Add the cell's block palette to the level.
-      Palette palette = cell.getPalette();
-      Palette existing = palettesByName.put(palette.getName(), palette);
+    // Where & how big the level is.
+    builder.setOrigin(layout.origin);
+    builder.setSize(layout.size);
 
-      // Make sure two different palettes don't use the same name.
-      if (!palette.equals(existing)) {
-        throw new IllegalStateException("palette name \"" + palette.getName() + "\" is not unique");
+    // Add the cells, in XZY order.
+    for (CompletableFuture<Void> cellTask : cellTasks) {
+      join(cellTask);
+    }
+    for (int i = 0; i < cellProtos.length; i++) {
+      if (cellProtos[i] == null) {
+        cellProtos[i] = encodedCells[encodedCellIndices[i]];
       }
-    });
+      builder.addCells(cellProtos[i]);
+    }
 
     // Tell the level which cells we added above.
-    byte[] populationBytes = BitsKt.toExactByteArray(population, populationSize);
-    builder.setPopulation(ByteString.copyFrom(populationBytes));
+    builder.setPopulation(layout.population);
 
     // Tell the level which types of blocks it can use.
-    for (Palette palette : palettesByName.values()) {
-      builder.addPalettes(palette.toProto());
+    PaletteData[] paletteProtos = new PaletteData[paletteTasks.size()];
+    for (int i = 0; i < paletteProtos.length; i++) {
+      paletteProtos[i] = join(paletteTasks.get(i));
+      builder.addPalettes(paletteProtos[i]);
+    }
+
+    // Only keep what's still in the level, so that old
+    // cells & palettes can be garbage collected.
+    if (cache != null) {
+      cache.encodedCells = new IdentityHashMap<>();
+      for (int i = 0; i < layout.cells.length; i++) {
+        if (layout.cells[i] instanceof Cell) {
+          cache.encodedCells.put(layout.cells[i], cellProtos[i]);
+        }
+      }
+
+      cache.encodedPalettes = new IdentityHashMap<>();
+      for (int i = 0; i < paletteProtos.length; i++) {
+        cache.encodedPalettes.put(layout.palettes.get(i), paletteProtos[i]);
+      }
     }
 
     return builder.build();
   }
+
+  /**
+   * @return where each of the level's cells go when it's encoded, and which palettes they use.
+   * @throws IllegalStateException if two different palettes in the level have the same name, or if
+   *                               the level is too large to encode.
+   */
+  LevelLayout layout() {
+    // Cells that are being edited need to be immutable
+    // before they can be encoded.
+    for (long key : cells.sortedKeys()) {
+      Object cell = cells.get(key);
+      if (cell instanceof EditedCell) {
+        finishEditing(key, (EditedCell) cell);
+      }
+    }
+    return new LevelLayout(cells);
+  }
+
+  /**
+   * Starts NBT-encoding compounds on the {@code executor}, in batches of {@link #NBT_PER_TASK}.
+   *
+   * @param compounds   The compounds to encode. Each must be an {@link NBTCompound}.
+   * @param destination Where each compound's bytes should go, at the same index as the compound.
+   * @return a task that completes once every compound is encoded.
+   */
+  private static CompletableFuture<Void> encodeAsync(List<?> compounds, ByteString[] destination,
+      Executor executor) {
+    List<CompletableFuture<Void>> tasks = new ArrayList<>();
+    for (int start = 0; start < destination.length; start += NBT_PER_TASK) {
+      int from = start;
+      int to = Math.min(start + NBT_PER_TASK, destination.length);
+
+      tasks.add(CompletableFuture.runAsync(() -> {
+        try {
+          for (int i = from; i < to; i++) {
+            destination[i] = NbtHelper.encodeToBytes((NBTCompound) compounds.get(i));
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }, executor));
+    }
+    return CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0]));
+  }
+
+  /**
+   * Strategies for when {@link #fromProto(LevelData, Executor, CellLoading) fromProto()} should
+   * decode a level's cells.
+   */
+  public enum CellLoading {
+    /**
+     * All cells are decoded up front, in parallel.
+     */
+    EAGER,
+
+    /**
+     * Each cell is decoded the first time it's retrieved via {@link #getCell(int, int, int)
+     * getCell()}, and kept from then on. Cells that are never retrieved are never decoded, and are
+     * saved using their original bytes.
+     */
+    LAZY,
+
+    /**
+     * Same as {@link #LAZY}, but decoded cells are only {@link java.lang.ref.SoftReference softly}
+     * kept. If memory runs low, they can be discarded and later decoded again from their original
+     * bytes.
+     */
+    LAZY_EVICTABLE
+  }
+
+  /**
+   * Everything that {@link #toProto(Executor) toProto()} encoded the last time it was called, for
+   * {@link #setSavingIncrementally(boolean) incremental saving}. Cells and palettes are keyed by
+   * identity, since they're immutable.
+   */
+  private static final class EncodingCache {
+
+    private Map<Object, CellData>     encodedCells    = new IdentityHashMap<>();
+    private Map<Palette, PaletteData> encodedPalettes = new IdentityHashMap<>();
+  }
+
+  /**
+   * A thread's most recently accessed cell. Only valid as long as no cells have been set or cleared
+   * since.
+   * <p><br>
+   * The cell is held strongly, so moving the cursor doesn't allocate. Once the cursor is found to be
+   * out of date, it lets go of the cell, so that a cell removed from the level isn't kept in memory
+   * for long.
+   */
+  private static final class CellCursor {
+
+    private long   key;
+    private Object cell;
+    private int    modCount = -1;
+
+    /**
+     * @return the cell that the cursor points to, or {@code null} if the cursor doesn't point to the
+     * provided key, or is out of date.
+     */
+    Object get(long key, int modCount) {
+      if (this.modCount != modCount) {
+        cell = null;
+        return null;
+      }
+      return (this.key == key)
+          ? cell
+          : null;
+    }
+
+    void moveTo(long key, Object cell, int modCount) {
+      this.key = key;
+      this.cell = cell;
+      this.modCount = modCount;
+    }
+  }
 }
@@ -0,0 +1,417 @@
+package me.nullicorn.ooze.level;
+
+import com.github.ooze.protos.CellData;
+import com.github.ooze.protos.PaletteData;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import me.nullicorn.ooze.level.LevelReader.CellVisitor;
+
+/**
+ * A level's cells, saved to a file that can be queried without loading it.
+ * <p><br>
+ * Files are {@link FileChannel#map(MapMode, long, long) memory-mapped} when they're opened, and
+ * each call to {@link #getCell(int, int, int) getCell()} decodes only the cell requested, straight
+ * from the mapped file. Looking up a cell that isn't in memory yet costs a binary search of the
+ * file's index, plus a page fault or two to read the cell itself.
+ * <p><br>
+ * The file consists of:
+ * <ol>
+ *   <li>A {@value #HEADER_SIZE}-byte header, with the {@link #MAGIC magic number}, format version,
+ *   number of palettes and cells, length of the largest cell, length of the palette table, and
+ *   offset of the index.</li>
+ *   <li>The palette table, with each {@link PaletteData} prefixed by its length.</li>
+ *   <li>The {@link CellData} of each cell, one after another. Identical cells are only saved
+ *   once.</li>
+ *   <li>The index, with one entry per cell, sorted by the cell's coordinates. Each entry is the
+ *   cell's {@link CellIndex#pack(int, int, int) packed} coordinates, and the offset and length of
+ *   its data in the file.</li>
+ * </ol>
+ * All numbers are big-endian. Only cells and their palettes are saved; a level's metadata,
+ * entities, and block entities are not.
+ * <p><br>
+ * Reads from an open file are thread-safe.
+ *
+ * @author Nullicorn
+ */
+public final class LevelFile implements Closeable {
+
+  /**
+   * The first 4 bytes of every level file, "OOZL" in ASCII.
+   */
+  static final int MAGIC = 0x4F4F5A4C;
+
+  /**
+   * The version of the file format written by this class.
+   */
+  static final int VERSION = 1;
+
+  static final int HEADER_SIZE      = 32;
+  static final int INDEX_ENTRY_SIZE = 20;
+
+  /**
+   * The maximum number of bytes of cell data that are mapped in one buffer, not including the
+   * overlap between them.
+   */
+  private static final int SEGMENT_SIZE = 1 << 30;
+
+  /**
+   * Saves the cells in a level to a file, replacing it if it already exists.
+   *
+   * @throws IOException              if the file could not be written.
+   * @throws IllegalArgumentException if the {@code level} or {@code path} are {@code null}.
+   * @throws IllegalStateException    if two different palettes in the level have the same name, or
+   *                                  if the level is too large to encode.
+   */
+  public static void write(Level level, Path path) throws IOException {
+    if (level == null) {
+      throw new IllegalArgumentException("null level cannot be written");
+    } else if (path == null) {
+      throw new IllegalArgumentException("null path cannot be written to");
+    }
+
+    LevelLayout layout = level.layout();
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      // The header is written last, once everything it
+      // describes is known.
+      channel.position(HEADER_SIZE);
+      DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+
+      long paletteTableLength = 0;
+      for (Palette palette : layout.palettes) {
+        byte[] encoded = palette.toProto(level.isCompactingProperties()).toByteArray();
+        out.writeInt(encoded.length);
+        out.write(encoded);
+        paletteTableLength += Integer.BYTES + encoded.length;
+      }
+      if (paletteTableLength > Integer.MAX_VALUE) {
+        throw new IllegalStateException("Palettes are too large to encode: " + paletteTableLength);
+      }
+
+      // Cells are already sorted by their location, so the
+      // index can be written in the same order.
+      int cellCount = layout.cells.length;
+      long[] offsets = new long[cellCount];
+      int[] lengths = new int[cellCount];
+      int maxCellLength = 0;
+
+      long position = HEADER_SIZE + paletteTableLength;
+      Map<Object, Integer> firstUses = new IdentityHashMap<>();
+      for (int i = 0; i < cellCount; i++) {
+        Object cell = layout.cells[i];
+
+        // Cells that were deduplicated only need to be
+        // written once.
+        Integer firstUse = firstUses.putIfAbsent(cell, i);
+        if (firstUse != null) {
+          offsets[i] = offsets[firstUse];
+          lengths[i] = lengths[firstUse];
+          continue;
+        }
+
+        CellData proto = (cell instanceof LazyCell)
+            ? ((LazyCell) cell).toProto()
+            : ((Cell) cell).toProto();
+        proto.writeTo(out);
+
+        offsets[i] = position;
+        lengths[i] = proto.getSerializedSize();
+        maxCellLength = Math.max(maxCellLength, lengths[i]);
+        position += lengths[i];
+      }
+
+      long indexOffset = position;
+      for (int i = 0; i < cellCount; i++) {
+        out.writeLong(layout.locations[i]);
+        out.writeLong(offsets[i]);
+        out.writeInt(lengths[i]);
+      }
+      out.flush();
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+          .putInt(MAGIC)
+          .putInt(VERSION)
+          .putInt(layout.palettes.size())
+          .putInt(cellCount)
+          .putInt(maxCellLength)
+          .putInt((int) paletteTableLength)
+          .putLong(indexOffset);
+      ((Buffer) header).flip();
+      writeFully(channel, header, 0);
+    }
+  }
+
+  /**
+   * Opens a file previously saved using {@link #write(Level, Path) write()}. The file should be
+   * {@link #close() closed} once it's no longer needed.
+   *
+   * @throws IOException              if the file could not be read, or if it isn't a valid level
+   *                                  file.
+   * @throws IllegalArgumentException if the {@code path} is {@code null}.
+   */
+  public static LevelFile open(Path path) throws IOException {
+    if (path == null) {
+      throw new IllegalArgumentException("null path cannot be opened");
+    }
+
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      return new LevelFile(channel);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private final FileChannel          channel;
+  private final Map<String, Palette> palettesByName;
+  private final int                  cellCount;
+
+  /**
+   * The file's index, which is {@link #cellCount} entries of {@value #INDEX_ENTRY_SIZE} bytes each.
+   */
+  private final ByteBuffer index;
+
+  /**
+   * Where the first cell starts in the file.
+   */
+  private final long cellsOffset;
+
+  /**
+   * The file's cell data, split into buffers of {@link #SEGMENT_SIZE} bytes each, plus the length
+   * of the largest cell. That way each cell is entirely inside the segment that it starts in.
+   */
+  private final ByteBuffer[] segments;
+
+  private volatile boolean isClosed;
+
+  private LevelFile(FileChannel channel) throws IOException {
+    this.channel = channel;
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    readFully(channel, header, 0);
+    if (header.getInt() != MAGIC) {
+      throw new IOException("Not a level file");
+    }
+    int version = header.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported level file version: " + version);
+    }
+    int paletteCount = header.getInt();
+    cellCount = header.getInt();
+    int maxCellLength = header.getInt();
+    int paletteTableLength = header.getInt();
+    long indexOffset = header.getLong();
+
+    cellsOffset = HEADER_SIZE + (long) paletteTableLength;
+    long indexLength = (long) cellCount * INDEX_ENTRY_SIZE;
+    if (paletteCount < 0 || cellCount < 0 || maxCellLength < 0 || paletteTableLength < 0
+        || indexOffset < cellsOffset
+        || indexLength > Integer.MAX_VALUE
+        || indexOffset + indexLength != channel.size()) {
+      throw new IOException("Corrupt level file header");
+    }
+
+    // Palettes are needed to decode any cell, so load
+    // them all up-front.
+    ByteBuffer paletteTable = ByteBuffer.allocate(paletteTableLength);
+    readFully(channel, paletteTable, HEADER_SIZE);
+    palettesByName = new HashMap<>();
+    for (int i = 0; i < paletteCount; i++) {
+      int length = paletteTable.getInt();
+      if (length < 0 || length > paletteTable.remaining()) {
+        throw new IOException("Corrupt level file palette table");
+      }
+
+      ByteBuffer encoded = paletteTable.slice();
+      ((Buffer) encoded).limit(length);
+      ((Buffer) paletteTable).position(paletteTable.position() + length);
+
+      Palette palette = Palette.fromProto(PaletteData.parseFrom(encoded));
+      palettesByName.put(palette.getName(), palette);
+    }
+
+    index = channel.map(MapMode.READ_ONLY, indexOffset, indexLength);
+
+    long cellsLength = indexOffset - cellsOffset;
+    int segmentCount = (int) ((cellsLength + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+    segments = new ByteBuffer[segmentCount];
+    for (int i = 0; i < segmentCount; i++) {
+      long start = cellsOffset + (long) i * SEGMENT_SIZE;
+      long length = Math.min(indexOffset - start, (long) SEGMENT_SIZE + maxCellLength);
+      segments[i] = channel.map(MapMode.READ_ONLY, start, length);
+    }
+  }
+
+  /**
+   * @return the number of cells in the file.
+   */
+  public int getCellCount() {
+    return cellCount;
+  }
+
+  /**
+   * Decodes the cell at those coordinates, without reading any others.
+   *
+   * @return The cell at those coordinates in the level, or {@code null} if there is none there.
+   * @throws IOException           if the cell's data is corrupt.
+   * @throws IllegalStateException if the file is {@link #close() closed}.
+   * @apiNote Coordinates use units of 16 blocks, which is the size of a cell (on all sides).
+   */
+  public Cell getCell(int x, int y, int z) throws IOException {
+    checkOpen();
+    if (!CellIndex.isInRange(x, y, z)) {
+      return null;
+    }
+
+    long key = CellIndex.pack(x, y, z);
+    int low = 0;
+    int high = cellCount - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      long middleKey = keyAt(middle);
+
+      if (middleKey < key) {
+        low = middle + 1;
+      } else if (middleKey > key) {
+        high = middle - 1;
+      } else {
+        return cellAt(middle);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Decodes each cell within a box, without reading any others, and passes it to the {@code
+   * visitor}. Cells are visited in XZY order.
+   * <p><br>
+   * Both corners of the box are inclusive.
+   *
+   * @throws IOException              if a cell's data is corrupt, or if the {@code visitor} throws
+   *                                  it.
+   * @throws IllegalArgumentException if the {@code visitor} is {@code null}.
+   * @throws IllegalStateException    if the file is {@link #close() closed}.
+   * @apiNote Coordinates use units of 16 blocks, which is the size of a cell (on all sides).
+   */
+  public void forEachCellIn(int fromX, int fromY, int fromZ, int toX, int toY, int toZ,
+      CellVisitor visitor) throws IOException {
+    if (visitor == null) {
+      throw new IllegalArgumentException("null visitor cannot be used to read cells");
+    }
+    checkOpen();
+
+    // Keys are sorted by X first, so skip straight to the
+    // first cell that could be in the box.
+    int low = 0;
+    int high = cellCount;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (CellIndex.unpackX(keyAt(middle)) < fromX) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    for (int i = low; i < cellCount; i++) {
+      long key = keyAt(i);
+      int x = CellIndex.unpackX(key);
+      if (x > toX) {
+        break;
+      }
+
+      int y = CellIndex.unpackY(key);
+      int z = CellIndex.unpackZ(key);
+      if (y >= fromY && y <= toY && z >= fromZ && z <= toZ) {
+        visitor.visit(x, y, z, cellAt(i));
+      }
+    }
+  }
+
+  /**
+   * Closes the underlying file.
+   * <p><br>
+   * The mapped buffers are released once they're garbage collected, which Java provides no way
+   * to force.
+   */
+  @Override
+  public void close() throws IOException {
+    isClosed = true;
+    channel.close();
+  }
+
+  /**
+   * @return the packed coordinates of the cell whose index entry is at that position.
+   */
+  private long keyAt(int entry) {
+    return index.getLong(entry * INDEX_ENTRY_SIZE);
+  }
+
+  /**
+   * Decodes the cell whose index entry is at that position.
+   */
+  private Cell cellAt(int entry) throws IOException {
+    int entryOffset = entry * INDEX_ENTRY_SIZE;
+    long offset = index.getLong(entryOffset + Long.BYTES) - cellsOffset;
+    int length = index.getInt(entryOffset + 2 * Long.BYTES);
+
+    long segment = offset / SEGMENT_SIZE;
+    int offsetInSegment = (int) (offset % SEGMENT_SIZE);
+    if (offset < 0 || length < 0 || segment >= segments.length
+        || offsetInSegment + (long) length > segments[(int) segment].capacity()) {
+      throw new IOException("Corrupt level file index at entry " + entry);
+    }
+
+    // Each read gets its own view of the segment, so that
+    // threads don't share a position.
+    ByteBuffer encoded = segments[(int) segment].duplicate();
+    ((Buffer) encoded).limit(offsetInSegment + length);
+    ((Buffer) encoded).position(offsetInSegment);
+
+    try {
+      return Cell.fromProto(CellData.parseFrom(encoded), palettesByName);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Corrupt cell at entry " + entry, e);
+    }
+  }
+
+  private void checkOpen() {
+    if (isClosed) {
+      throw new IllegalStateException("Level file is closed");
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer dest, long position)
+      throws IOException {
+    while (dest.hasRemaining()) {
+      int read = channel.read(dest, position);
+      if (read < 0) {
+        throw new IOException("Unexpected end of level file");
+      }
+      position += read;
+    }
+    ((Buffer) dest).flip();
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer src, long position)
+      throws IOException {
+    while (src.hasRemaining()) {
+      position += channel.write(src, position);
+    }
+  }
+}
@@ -0,0 +1,177 @@
+package me.nullicorn.ooze.level;
+
+import com.github.ooze.protos.LevelData.Coordinates;
+import com.github.ooze.protos.LevelData.Dimensions;
+import com.google.protobuf.ByteString;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where each of a level's cells go when it's encoded, and which palettes they use.
+ * <p><br>
+ * This is everything about a level's encoded form that depends on more than one cell at a time,
+ * so that the cells themselves can be encoded in any order (or in parallel), and still produce
+ * the same output.
+ *
+ * @author Nullicorn
+ */
+final class LevelLayout {
+
+  /**
+   * Helper function for getting a cell's index in the population bit field, given the level's size
+   * and origin.
+   *
+   * @param location The cell's {@link CellIndex#pack(int, int, int) packed} coordinates.
+   * @apiNote All three parameters are measured in 16-block units.
+   */
+  static int indexOfCellAt(long location, Coordinates origin, Dimensions levelSize) {
+    int xOffset = CellIndex.unpackX(location) - origin.getX();
+    int yOffset = CellIndex.unpackY(location) - origin.getY();
+    int zOffset = CellIndex.unpackZ(location) - origin.getZ();
+    return (xOffset * levelSize.getDepth() * levelSize.getHeight())
+           + (zOffset * levelSize.getHeight())
+           + yOffset;
+  }
+
+  /**
+   * The reverse of {@link #indexOfCellAt(long, Coordinates, Dimensions) indexOfCellAt()}.
+   *
+   * @param populationIndex The index of the cell's bit in the population bit field.
+   * @return the cell's {@link CellIndex#pack(int, int, int) packed} coordinates.
+   * @throws IllegalArgumentException if the cell is outside the range supported by {@link
+   *                                  CellIndex}.
+   */
+  static long locationOf(int populationIndex, Coordinates origin, Dimensions levelSize) {
+    int columnHeight = levelSize.getHeight();
+    int sliceArea = levelSize.getDepth() * columnHeight;
+
+    int xOffset = populationIndex / sliceArea;
+    int zOffset = populationIndex % sliceArea / columnHeight;
+    int yOffset = populationIndex % columnHeight;
+
+    return CellIndex.pack(
+        origin.getX() + xOffset,
+        origin.getY() + yOffset,
+        origin.getZ() + zOffset);
+  }
+
+  /**
+   * Helper function for creating a {@link Coordinates} object without using the builder.
+   */
+  private static Coordinates createCoordinates(int x, int y, int z) {
+    return Coordinates.newBuilder().setX(x).setY(y).setZ(z).build();
+  }
+
+  /**
+   * The {@link CellIndex#pack(int, int, int) packed} coordinates of each cell, in the order they're
+   * encoded (XZY).
+   */
+  final long[] locations;
+
+  /**
+   * Each cell, at the same index as its location. Values are either {@link Cell Cells} or {@link
+   * LazyCell LazyCells}.
+   */
+  final Object[] cells;
+
+  /**
+   * The coordinates of the level's lowest corner, in 16-block units.
+   */
+  final Coordinates origin;
+
+  /**
+   * The size of the level's bounding box, in 16-block units.
+   */
+  final Dimensions size;
+
+  /**
+   * A bit field indicating which cells in the level's bounding box are present.
+   */
+  final ByteString population;
+
+  /**
+   * Every palette used by the cells, in the order that they're first used. No two have the same
+   * name.
+   */
+  final List<Palette> palettes;
+
+  /**
+   * Determines the layout of the cells in an index.
+   *
+   * @throws IllegalStateException if two different palettes have the same name, or if the cells
+   *                               cover too large an area to encode.
+   */
+  LevelLayout(CellIndex index) {
+    locations = index.sortedKeys();
+
+    // Determine the level's bounds using the lowest
+    // & highest coordinates of any cell on each axis.
+    if (locations.length == 0) {
+      origin = createCoordinates(0, 0, 0);
+      size = Dimensions.newBuilder().build();
+    } else {
+      // Cells are sorted by X first, so that's easy.
+      int minX = CellIndex.unpackX(locations[0]);
+      int maxX = CellIndex.unpackX(locations[locations.length - 1]);
+      int minY = Integer.MAX_VALUE;
+      int maxY = Integer.MIN_VALUE;
+      int minZ = Integer.MAX_VALUE;
+      int maxZ = Integer.MIN_VALUE;
+      for (long location : locations) {
+        int y = CellIndex.unpackY(location);
+        int z = CellIndex.unpackZ(location);
+        minY = Math.min(minY, y);
+        maxY = Math.max(maxY, y);
+        minZ = Math.min(minZ, z);
+        maxZ = Math.max(maxZ, z);
+      }
+
+      origin = createCoordinates(minX, minY, minZ);
+      size = Dimensions.newBuilder()
+          .setWidth(maxX - minX + 1)
+          .setDepth(maxZ - minZ + 1)
+          .setHeight(maxY - minY + 1)
+          .build();
+    }
+
+    // Determine which cells have blocks in them.
+    long maxPopulationSize = (long) size.getWidth() * size.getDepth() * size.getHeight();
+    if (maxPopulationSize > Integer.MAX_VALUE) {
+      throw new IllegalStateException("Level is too large to encode: " + maxPopulationSize);
+    }
+    int populationSize = (int) maxPopulationSize;
+    BitSet population = new BitSet(populationSize);
+
+    // Palettes are kept in the order they're first used,
+    // so that the output doesn't depend on hashing.
+    Map<String, Palette> palettesByName = new LinkedHashMap<>();
+
+    cells = new Object[locations.length];
+    for (int i = 0; i < locations.length; i++) {
+      Object cell = index.get(locations[i]);
+      cells[i] = cell;
+
+      // Mark the cell as populated.
+      population.set(indexOfCellAt(locations[i], origin, size), true);
+
+      Palette palette = (cell instanceof LazyCell)
+          ? ((LazyCell) cell).getPalette()
+          : ((Cell) cell).getPalette();
+
+      // Add the cell's block palette to the level.
+      Palette existing = palettesByName.put(palette.getName(), palette);
+
+      // Make sure two different palettes don't use the same name.
+      if (existing != null && !palette.equals(existing)) {
+        throw new IllegalStateException("palette name \"" + palette.getName() + "\" is not unique");
+      }
+    }
+
+    byte[] populationBytes = BitsKt.toExactByteArray(population, populationSize);
+    this.population = ByteString.copyFrom(populationBytes);
+    this.palettes = new ArrayList<>(palettesByName.values());
+  }
+}
@@ -0,0 +1,240 @@
+package me.nullicorn.ooze.level;
+
+import com.github.ooze.protos.CellData;
+import com.github.ooze.protos.LevelData;
+import com.github.ooze.protos.LevelData.Coordinates;
+import com.github.ooze.protos.LevelData.Dimensions;
+import com.github.ooze.protos.PaletteData;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.WireFormat;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helper methods for reading the cells of a level straight from a stream, without building a
+ * {@link LevelData} or {@link Level} first.
+ * <p><br>
+ * Each cell is handed to a {@link CellVisitor} as soon as it can be decoded, and is then
+ * forgotten. The level's entities, block entities, and metadata are skipped without being
+ * decoded. This makes it cheap to scan many levels for things like block counts.
+ * <p><br>
+ * A cell can be decoded once the level's population, and the cell's palette, have been read.
+ * {@link LevelWriter} writes both of those before any cells, so levels it writes are read one
+ * cell at a time. Cells that appear before either of them (such as in the output of {@link
+ * LevelData#toByteArray()}, where palettes come last) are kept in their encoded form until the end
+ * of the stream, and then visited.
+ *
+ * @author Nullicorn
+ */
+public final class LevelReader {
+
+  /**
+   * The number of bytes read from the underlying stream at a time.
+   */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * A callback for cells read by a {@link LevelReader}.
+   */
+  @FunctionalInterface
+  public interface CellVisitor {
+
+    /**
+     * Called for each cell in the level, in the same order they appear in the stream. For levels
+     * written by this library, that is XZY order.
+     *
+     * @throws IOException if the visitor fails, which stops the level from being read any further.
+     * @apiNote Coordinates use units of 16 blocks, which is the size of a cell (on all sides).
+     */
+    void visit(int x, int y, int z, Cell cell) throws IOException;
+  }
+
+  /**
+   * Reads a level from a stream, in the ProtoBuf wire format, passing each of its cells to the
+   * {@code visitor}.
+   * <p><br>
+   * The stream is read until it ends, but is not closed.
+   *
+   * @throws IOException              if the stream could not be read, if it isn't a valid level,
+   *                                  or if the {@code visitor} throws it.
+   * @throws IllegalArgumentException if any of the arguments are {@code null}, if the number of
+   *                                  cells does not match the level's population, if two palettes
+   *                                  share a name, if a cell refers to an unknown palette, or if a
+   *                                  cell is malformed.
+   */
+  public static void read(InputStream in, CellVisitor visitor) throws IOException {
+    if (in == null) {
+      throw new IllegalArgumentException("null stream cannot be read from");
+    } else if (visitor == null) {
+      throw new IllegalArgumentException("null visitor cannot be used to read level");
+    }
+
+    CodedInputStream input = CodedInputStream.newInstance(in, BUFFER_SIZE);
+    // Levels are commonly larger than the default 64 MiB.
+    input.setSizeLimit(Integer.MAX_VALUE);
+    new State(visitor).readFields(input);
+  }
+
+  /**
+   * Reads a level from a channel, in the ProtoBuf wire format, passing each of its cells to the
+   * {@code visitor}.
+   * <p><br>
+   * The channel is read until it ends, but is not closed.
+   *
+   * @see #read(InputStream, CellVisitor)
+   */
+  public static void read(ReadableByteChannel channel, CellVisitor visitor) throws IOException {
+    if (channel == null) {
+      throw new IllegalArgumentException("null channel cannot be read from");
+    }
+    read(Channels.newInputStream(channel), visitor);
+  }
+
+  /**
+   * Everything known about a level while it's being read.
+   */
+  private static final class State {
+
+    private final CellVisitor          visitor;
+    private final Map<String, Palette> palettesByName = new HashMap<>();
+
+    /**
+     * Cells that couldn't be decoded when they were read, in the order they were read. Once any
+     * cell is pending, every cell after it is too, so that order is kept.
+     */
+    private final List<CellData> pendingCells = new ArrayList<>();
+
+    private Coordinates origin = Coordinates.getDefaultInstance();
+    private Dimensions  size   = Dimensions.getDefaultInstance();
+    private BitSet      population;
+
+    /**
+     * The population index of the last cell that was visited, or {@code -1} if none have been.
+     */
+    private int lastPopulationIndex = -1;
+
+    /**
+     * The number of cells read so far, including ones that are pending.
+     */
+    private int cellCount;
+
+    State(CellVisitor visitor) {
+      this.visitor = visitor;
+    }
+
+    void readFields(CodedInputStream input) throws IOException {
+      ExtensionRegistryLite registry = ExtensionRegistryLite.getEmptyRegistry();
+
+      for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+        switch (WireFormat.getTagFieldNumber(tag)) {
+          case LevelData.ORIGIN_FIELD_NUMBER:
+            checkLayoutCanChange("origin");
+            origin = input.readMessage(Coordinates.parser(), registry);
+            break;
+
+          case LevelData.SIZE_FIELD_NUMBER:
+            checkLayoutCanChange("size");
+            size = input.readMessage(Dimensions.parser(), registry);
+            break;
+
+          case LevelData.POPULATION_FIELD_NUMBER:
+            checkLayoutCanChange("population");
+            population = BitSet.valueOf(input.readBytes().asReadOnlyByteBuffer());
+            break;
+
+          case LevelData.PALETTES_FIELD_NUMBER:
+            Palette palette = Palette.fromProto(input.readMessage(PaletteData.parser(), registry));
+            if (palettesByName.put(palette.getName(), palette) != null) {
+              throw new IllegalArgumentException(
+                  "palette name \"" + palette.getName() + "\" is not unique");
+            }
+            break;
+
+          case LevelData.CELLS_FIELD_NUMBER:
+            CellData cell = input.readMessage(CellData.parser(), registry);
+            cellCount++;
+
+            if (pendingCells.isEmpty() && canDecode(cell)) {
+              visit(cell);
+            } else {
+              pendingCells.add(cell);
+            }
+            break;
+
+          default:
+            // Metadata, entities, block entities, and any
+            // unknown fields.
+            input.skipField(tag);
+            break;
+        }
+      }
+
+      // Now that everything's been read, decode any cells
+      // that were waiting on it.
+      if (!pendingCells.isEmpty() && population == null) {
+        population = new BitSet();
+      }
+      for (CellData cell : pendingCells) {
+        visit(cell);
+      }
+      pendingCells.clear();
+
+      int expectedCount = (population == null) ? 0 : population.cardinality();
+      if (cellCount != expectedCount) {
+        throw new IllegalArgumentException("Population has " + expectedCount
+                                           + " cells, but " + cellCount + " were found");
+      }
+    }
+
+    /**
+     * @return whether the cell can be decoded yet.
+     */
+    private boolean canDecode(CellData cell) {
+      return population != null && palettesByName.containsKey(cell.getPaletteName());
+    }
+
+    /**
+     * Decodes a cell, and then passes it to the visitor at its location.
+     */
+    private void visit(CellData proto) throws IOException {
+      int populationIndex = population.nextSetBit(lastPopulationIndex + 1);
+      long populationSize = (long) size.getWidth() * size.getDepth() * size.getHeight();
+      if (populationIndex < 0) {
+        throw new IllegalArgumentException("Level has more cells than its population");
+      } else if (populationIndex >= populationSize) {
+        throw new IllegalArgumentException("Population has cells outside the level's bounds");
+      }
+      lastPopulationIndex = populationIndex;
+
+      long location = LevelLayout.locationOf(populationIndex, origin, size);
+      Cell cell = Cell.fromProto(proto, palettesByName);
+      visitor.visit(
+          CellIndex.unpackX(location),
+          CellIndex.unpackY(location),
+          CellIndex.unpackZ(location),
+          cell);
+    }
+
+    /**
+     * @throws IOException if any cells have already been visited, since their locations depend on
+     *                     the field that was just found.
+     */
+    private void checkLayoutCanChange(String fieldName) throws IOException {
+      if (lastPopulationIndex >= 0) {
+        throw new IOException("Level's " + fieldName + " must come before its cells");
+      }
+    }
+  }
+
+  private LevelReader() {
+    throw new UnsupportedOperationException(getClass() + " should not be instantiated");
+  }
+}
@@ -0,0 +1,130 @@
+package me.nullicorn.ooze.level;
+
+import com.github.ooze.protos.CellData;
+import com.github.ooze.protos.LevelData;
+import com.google.protobuf.CodedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import me.nullicorn.nedit.type.NBTCompound;
+import me.nullicorn.ooze.level.nbt.NbtHelper;
+
+/**
+ * Helper methods for saving levels straight to a stream, without building a {@link LevelData}
+ * first.
+ * <p><br>
+ * The output parses to the same message as {@link Level#toProto()}, and can be read back with
+ * {@link LevelData#parseFrom(java.io.InputStream) LevelData.parseFrom()}, or one cell at a time
+ * with {@link LevelReader}. However, only one cell, palette, or NBT compound is encoded at a time,
+ * so the level's encoded form never needs to be held in memory all at once.
+ *
+ * @author Nullicorn
+ */
+public final class LevelWriter {
+
+  /**
+   * The number of bytes buffered before they are written to the underlying stream.
+   */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Writes a level to a stream, in the ProtoBuf wire format.
+   * <p><br>
+   * The stream is flushed afterwards, but not closed.
+   *
+   * @throws IOException              if the level could not be written to the stream, or if any of
+   *                                  its arbitrary data could not be NBT-encoded (e.g. metadata,
+   *                                  entities, block states, etc).
+   * @throws IllegalArgumentException if the {@code level} or {@code out} stream are {@code null}.
+   * @throws IllegalStateException    if two different palettes in the level have the same name, or
+   *                                  if the level is too large to encode.
+   */
+  public static void write(Level level, OutputStream out) throws IOException {
+    if (level == null) {
+      throw new IllegalArgumentException("null level cannot be written");
+    } else if (out == null) {
+      throw new IllegalArgumentException("null stream cannot be written to");
+    }
+
+    CodedOutputStream output = CodedOutputStream.newInstance(out, BUFFER_SIZE);
+    writeFields(level, output);
+    output.flush();
+    out.flush();
+  }
+
+  /**
+   * Writes a level to a channel, in the ProtoBuf wire format.
+   * <p><br>
+   * The channel is not closed afterwards.
+   *
+   * @throws IOException              if the level could not be written to the channel, or if any
+   *                                  of its arbitrary data could not be NBT-encoded (e.g. metadata,
+   *                                  entities, block states, etc).
+   * @throws IllegalArgumentException if the {@code level} or {@code channel} are {@code null}.
+   * @throws IllegalStateException    if two different palettes in the level have the same name, or
+   *                                  if the level is too large to encode.
+   * @see #write(Level, OutputStream)
+   */
+  public static void write(Level level, WritableByteChannel channel) throws IOException {
+    if (channel == null) {
+      throw new IllegalArgumentException("null channel cannot be written to");
+    }
+    write(level, Channels.newOutputStream(channel));
+  }
+
+  /**
+   * Writes each of the level's fields, following the same rules as ProtoBuf itself for omitting
+   * empty fields. Fields are written in ascending order by field number, except that palettes come
+   * before cells.
+   */
+  private static void writeFields(Level level, CodedOutputStream output) throws IOException {
+    // Determine the layout first so that nothing is
+    // written if the level can't be encoded.
+    LevelLayout layout = level.layout();
+
+    // NBT is encoded straight into the output, without an
+    // intermediate ByteString.
+    NBTCompound metadata = level.getMetadata();
+    if (!metadata.isEmpty()) {
+      NbtHelper.encodeToField(metadata, LevelData.METADATA_FIELD_NUMBER, output);
+    }
+
+    for (Object entity : level.getEntities()) {
+      NbtHelper.encodeToField((NBTCompound) entity, LevelData.ENTITIES_FIELD_NUMBER, output);
+    }
+
+    for (Object blockEntity : level.getBlockEntities()) {
+      NbtHelper.encodeToField(
+          (NBTCompound) blockEntity, LevelData.BLOCK_ENTITIES_FIELD_NUMBER, output);
+    }
+
+    output.writeMessage(LevelData.ORIGIN_FIELD_NUMBER, layout.origin);
+    output.writeMessage(LevelData.SIZE_FIELD_NUMBER, layout.size);
+
+    if (!layout.population.isEmpty()) {
+      output.writeBytes(LevelData.POPULATION_FIELD_NUMBER, layout.population);
+    }
+
+    // Palettes go before cells (unlike ProtoBuf's own
+    // order) so that LevelReader can decode each cell as
+    // soon as it's read.
+    for (Palette palette : layout.palettes) {
+      output.writeMessage(LevelData.PALETTES_FIELD_NUMBER,
+          palette.toProto(level.isCompactingProperties()));
+    }
+
+    // Cells that were never decoded can reuse their
+    // original proto.
+    for (Object cell : layout.cells) {
+      CellData proto = (cell instanceof LazyCell)
+          ? ((LazyCell) cell).toProto()
+          : ((Cell) cell).toProto();
+      output.writeMessage(LevelData.CELLS_FIELD_NUMBER, proto);
+    }
+  }
+
+  private LevelWriter() {
+    throw new UnsupportedOperationException(getClass() + " should not be instantiated");
+  }
+}
@@ -0,0 +1,336 @@
+package me.nullicorn.ooze.level;
+
+import static me.nullicorn.ooze.level.PackedUIntArray.WORD_MASK;
+import static me.nullicorn.ooze.level.PackedUIntArray.WORD_SHIFT;
+import static me.nullicorn.ooze.level.PackedUIntArray.bytesNeeded;
+import static me.nullicorn.ooze.level.PackedUIntArray.checkRange;
+import static me.nullicorn.ooze.level.PackedUIntArray.wordsNeeded;
+
+/**
+ * A {@link PackedUIntArray} whose values can be changed in place.
+ * <p><br>
+ * The array's {@link #size() size} is fixed, but its {@link #magnitude() magnitude} grows
+ * automatically whenever a value is set that would not otherwise fit. Values are never repacked
+ * otherwise, so most writes only touch one or two words of the array.
+ * <p><br>
+ * Conversions to and from the immutable form are cheap, because both sides share the same storage
+ * until the mutable array is next modified. Mutable arrays are not thread-safe.
+ *
+ * @author Nullicorn
+ */
+public final class MutablePackedUIntArray {
+
+  /**
+   * The number of uints that are repacked at a time when the array's magnitude grows.
+   */
+  private static final int REPACK_CHUNK_SIZE = 256;
+
+  /**
+   * Capacity of the array.
+   */
+  private final int size;
+
+  /**
+   * Number of bits per uint.
+   */
+  private int magnitude;
+
+  /**
+   * Bitmask over the number of bits per uint (aka {@link #magnitude}).
+   */
+  private int valueMask;
+
+  /**
+   * Internal storage for values. Same format as in {@link PackedUIntArray}.
+   */
+  private long[] words;
+
+  /**
+   * Whether the {@link #words} array is also being used by an immutable array, in which case it
+   * needs to be copied before we can modify it.
+   */
+  private boolean isShared;
+
+  /**
+   * Creates a mutable array where every value is initially zero.
+   *
+   * @param size The number of uints that the array can hold.
+   * @throws NegativeArraySizeException if the {@code size} is negative.
+   */
+  public MutablePackedUIntArray(int size) {
+    this(size, 0);
+  }
+
+  /**
+   * Creates a mutable array where every value is initially zero, but with enough space for values
+   * up to a certain magnitude before the array needs to grow.
+   *
+   * @param size      The number of uints that the array can hold.
+   * @param magnitude The initial number of bits per uint.
+   * @throws NegativeArraySizeException if the {@code size} is negative.
+   * @throws IllegalArgumentException   if {@code magnitude < 0 || magnitude > Integer.SIZE}, or if
+   *                                    the combined size and magnitude lead to integer overflow.
+   */
+  public MutablePackedUIntArray(int size, int magnitude) {
+    if (size < 0) {
+      throw new NegativeArraySizeException(Integer.toString(size));
+    } else if (magnitude < 0 || magnitude > Integer.SIZE) {
+      throw new IllegalArgumentException("magnitude must be in range [0, 32]: " + magnitude);
+    }
+    bytesNeeded(size, magnitude);
+
+    this.size = size;
+    this.magnitude = magnitude;
+    this.valueMask = BitsKt.getFullMask(magnitude);
+    this.words = new long[wordsNeeded(size, magnitude)];
+  }
+
+  /**
+   * Constructor for wrapping words that have already been packed.
+   *
+   * @param isShared Whether the {@code words} are also used elsewhere, and must be copied before
+   *                 they can be modified.
+   */
+  MutablePackedUIntArray(int size, int magnitude, long[] words, boolean isShared) {
+    this.size = size;
+    this.magnitude = magnitude;
+    this.valueMask = BitsKt.getFullMask(magnitude);
+    this.words = words;
+    this.isShared = isShared;
+  }
+
+  /**
+   * @return the number of uints that the array can hold.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the number of bits currently used to store uints in the array.
+   */
+  public int magnitude() {
+    return magnitude;
+  }
+
+  /**
+   * @return the maximum value that can be stored in the array without it having to grow.
+   * @see PackedUIntArray#max()
+   */
+  public long max() {
+    return magnitude == 0
+        ? 0L
+        : Integer.toUnsignedLong(valueMask);
+  }
+
+  /**
+   * @param index Zero-based index of the uint.
+   * @return the uint value at the index.
+   * @throws ArrayIndexOutOfBoundsException if the {@code index} is negative, or if it
+   *                                        equals/exceeds the array's {@link #size() size}.
+   * @see PackedUIntArray#get(int)
+   */
+  public int get(int index) {
+    if (index < 0 || index >= size) {
+      throw new ArrayIndexOutOfBoundsException(index);
+    } else if (magnitude == 0) {
+      return 0;
+    }
+
+    long startBit = (long) index * magnitude;
+    int wordIndex = (int) (startBit >>> WORD_SHIFT);
+    int offset = (int) (startBit & WORD_MASK);
+
+    long value = words[wordIndex] >>> offset;
+
+    int bitsInWord = Long.SIZE - offset;
+    if (bitsInWord < magnitude) {
+      value |= words[wordIndex + 1] << bitsInWord;
+    }
+
+    return (int) value & valueMask;
+  }
+
+  /**
+   * Replaces the uint at an index. If the new value exceeds the array's {@link #max() max}, the
+   * array is first repacked using the value's magnitude.
+   *
+   * @param index Zero-based index of the uint.
+   * @param value UInt to replace the existing value with.
+   * @return the uint previously at that index.
+   * @throws ArrayIndexOutOfBoundsException if the {@code index} is negative, or if it
+   *                                        equals/exceeds the array's {@link #size() size}.
+   */
+  public int set(int index, int value) {
+    if (index < 0 || index >= size) {
+      throw new ArrayIndexOutOfBoundsException(index);
+    }
+    prepareForWrite(value);
+
+    if (magnitude == 0) {
+      return 0;
+    }
+
+    long startBit = (long) index * magnitude;
+    int wordIndex = (int) (startBit >>> WORD_SHIFT);
+    int offset = (int) (startBit & WORD_MASK);
+    int bitsInWord = Long.SIZE - offset;
+
+    long mask = Integer.toUnsignedLong(valueMask);
+    long bits = Integer.toUnsignedLong(value);
+
+    // Swap out the uint's low-order bits.
+    long word = words[wordIndex];
+    long previous = word >>> offset;
+    words[wordIndex] = (word & ~(mask << offset)) | (bits << offset);
+
+    // ...and its high-order bits, if they spill into the
+    // next word.
+    if (bitsInWord < magnitude) {
+      long nextWord = words[wordIndex + 1];
+      previous |= nextWord << bitsInWord;
+      words[wordIndex + 1] = (nextWord & ~(mask >>> bitsInWord)) | (bits >>> bitsInWord);
+    }
+
+    return (int) previous & valueMask;
+  }
+
+  /**
+   * Copies a slice of a primitive integer array ({@code int[]}) into consecutive positions of the
+   * array, starting at the {@code index}. If any of the values exceed the array's {@link #max()
+   * max}, the array is first repacked using the widest value's magnitude.
+   *
+   * @param index  The index of the first uint to replace.
+   * @param source The values to copy.
+   * @param offset The index in the {@code source} of the first value to copy.
+   * @param length The number of values to copy.
+   * @throws IllegalArgumentException       if the {@code source} is {@code null}.
+   * @throws ArrayIndexOutOfBoundsException if the slice does not fit in the {@code source}, or if
+   *                                        there are fewer than {@code length} uints after the
+   *                                        {@code index}.
+   */
+  public void setRange(int index, int[] source, int offset, int length) {
+    if (source == null) {
+      throw new IllegalArgumentException("null array cannot be copied from");
+    }
+    checkRange(source.length, offset, length);
+    checkRange(size, index, length);
+
+    int widest = 0;
+    for (int i = offset; i < offset + length; i++) {
+      widest |= source[i];
+    }
+    prepareForWrite(widest);
+
+    PackedUIntArray.pack(words, magnitude, index, source, offset, length);
+  }
+
+  /**
+   * Sets every uint in a range of the array to the same value. If the value exceeds the array's
+   * {@link #max() max}, the array is first repacked using the value's magnitude.
+   *
+   * @param fromIndex The index of the first uint to replace (inclusive).
+   * @param toIndex   The index after the last uint to replace (exclusive).
+   * @param value     The value to set.
+   * @throws ArrayIndexOutOfBoundsException if {@code fromIndex < 0 || toIndex > size()}.
+   * @throws IllegalArgumentException       if {@code fromIndex > toIndex}.
+   */
+  public void fill(int fromIndex, int toIndex, int value) {
+    if (fromIndex > toIndex) {
+      throw new IllegalArgumentException("fromIndex > toIndex: " + fromIndex + " > " + toIndex);
+    }
+    checkRange(size, fromIndex, toIndex - fromIndex);
+    prepareForWrite(value);
+
+    PackedUIntArray.fill(words, magnitude, fromIndex, toIndex, value);
+  }
+
+  /**
+   * Unpacks all the array's uints into a primitive integer array ({@code int[]}).
+   *
+   * @return a new array with the same size and values as this one.
+   */
+  public int[] toIntArray() {
+    int[] uints = new int[size];
+    copyInto(uints, 0);
+    return uints;
+  }
+
+  /**
+   * Unpacks all the array's uints into an existing primitive integer array ({@code int[]}).
+   *
+   * @see PackedUIntArray#copyInto(int[], int)
+   */
+  public void copyInto(int[] destination, int offset) {
+    if (destination == null) {
+      throw new IllegalArgumentException("null array cannot be copied into");
+    }
+    checkRange(destination.length, offset, size);
+
+    PackedUIntArray.unpack(words, magnitude, 0, destination, offset, size);
+  }
+
+  /**
+   * Creates an immutable array with the same size, magnitude, and values as this one. The arrays
+   * share their storage until this one is next modified, so this is cheap to call.
+   *
+   * @return an immutable copy of the array.
+   */
+  public PackedUIntArray toImmutable() {
+    isShared = true;
+    return new PackedUIntArray(size, magnitude, words);
+  }
+
+  /**
+   * Makes sure the array's {@link #words} can be modified, and that they can hold the provided
+   * {@code value}.
+   */
+  private void prepareForWrite(int value) {
+    if (Integer.toUnsignedLong(value) > max()) {
+      grow(BitsKt.getWidth(value));
+    } else if (isShared) {
+      words = words.clone();
+      isShared = false;
+    }
+  }
+
+  /**
+   * Repacks the array's values using a larger magnitude.
+   *
+   * @throws IllegalArgumentException if the array's size and new magnitude lead to integer
+   *                                  overflow.
+   */
+  private void grow(int newMagnitude) {
+    bytesNeeded(size, newMagnitude);
+    long[] newWords = new long[wordsNeeded(size, newMagnitude)];
+
+    // Move the values over a few at a time, so that we
+    // don't have to unpack the whole array at once.
+    int[] chunk = new int[Math.min(size, REPACK_CHUNK_SIZE)];
+    for (int i = 0; i < size; i += chunk.length) {
+      int length = Math.min(chunk.length, size - i);
+      PackedUIntArray.unpack(words, magnitude, i, chunk, 0, length);
+      PackedUIntArray.pack(newWords, newMagnitude, i, chunk, 0, length);
+    }
+
+    magnitude = newMagnitude;
+    valueMask = BitsKt.getFullMask(newMagnitude);
+    words = newWords;
+    isShared = false;
+  }
+
+  @Override
+  public String toString() {
+    if (size == 0) {
+      return "[]";
+    }
+
+    StringBuilder sb = new StringBuilder("[");
+    for (int value : toIntArray()) {
+      sb.append(value).append(", ");
+    }
+    sb.replace(sb.length() - 2, sb.length() - 1, "]");
+
+    return sb.toString();
+  }
+}
@@ -2,17 +2,36 @@ package me.nullicorn.ooze.level;
 
 import com.github.ooze.protos.PackedUIntArrayData;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.Objects;
 
 /**
  * A binary data structure for packing unsigned integers (aka UInts) as closely as possible into
  * bytes.
+ * <p><br>
+ * Internally, uints are packed into 64-bit words rather than individual bytes, so that any value
+ * can be read or written using at most two words. The bit layout is identical to that of the
+ * array's {@link PackedUIntArrayData ProtoBuf form}, which is simply the same words in
+ * little-endian byte order.
  *
  * @author Nullicorn
  */
 public final class PackedUIntArray {
 
+  /**
+   * The base-2 logarithm of {@link Long#SIZE}. Shifting a bit index right by this gives the index of
+   * the word that the bit is in.
+   */
+  static final int WORD_SHIFT = 6;
+
+  /**
+   * A mask over the bits of a bit index that determine its offset within a word.
+   */
+  static final int WORD_MASK = Long.SIZE - 1;
+
   /**
    * A factory for converting packed uint arrays from their ProtoBuf form.
    *
@@ -27,14 +46,13 @@ public final class PackedUIntArray {
       throw new IllegalArgumentException("null proto cannot be converted to a uint array");
     }
 
-    byte[] contents = proto.getContents().toByteArray();
-    return new PackedUIntArray(proto.getSize(), proto.getMagnitude(), contents);
+    return new PackedUIntArray(proto.getSize(), proto.getMagnitude(), proto.getContents());
   }
 
   /**
    * Helper function for construction.
    *
-   * @return the correct length of the {@link #contents} field, given the array's {@code size} and
+   * @return the correct length of the array's ProtoBuf contents, given its {@code size} and
    * {@code magnitude}.
    * @throws IllegalArgumentException if the combined size and magnitude cannot be used due to
    *                                  integer overflow.
@@ -47,6 +65,17 @@ public final class PackedUIntArray {
     return (int) bytesNeeded;
   }
 
+  /**
+   * Helper function for construction.
+   *
+   * @return the correct length of the {@link #words} field, given the array's {@code size} and
+   * {@code magnitude}.
+   */
+  static int wordsNeeded(int size, int magnitude) {
+    long bitsNeeded = (long) size * magnitude;
+    return (int) ((bitsNeeded + WORD_MASK) >>> WORD_SHIFT);
+  }
+
   /**
    * Capacity of the array.
    */
@@ -58,15 +87,23 @@ public final class PackedUIntArray {
   private final int magnitude;
 
   /**
-   * Internal storage for values. See .proto definition for more details.
+   * Internal storage for values. Equivalent to the .proto definition's byte array, but with every
+   * eight bytes combined into a single little-endian word.
    */
-  private final byte[] contents;
+  private final long[] words;
 
   /**
    * Bitmask over the number of bits per uint (aka {@link #magnitude}).
    */
   private final int valueMask;
 
+  /**
+   * The array's contents in their ProtoBuf form, or {@code null} if they haven't been needed yet.
+   * Because the array is immutable, this only ever has to be created once, and arrays that came
+   * from a proto can reuse that proto's bytes as-is.
+   */
+  private ByteString encoded;
+
   /**
    * Copies the contents of a primitive integer array ({@code int[]}) into a packed uint array. The
    * new array will have the same length as the original, and values in corresponding indices will
@@ -77,34 +114,60 @@ public final class PackedUIntArray {
    *                                  combined size and magnitude lead to integer overflow.
    */
   public PackedUIntArray(int... uints) {
+    this(uints, 0, uints == null ? 0 : uints.length);
+  }
+
+  /**
+   * Copies a slice of a primitive integer array ({@code int[]}) into a packed uint array. The new
+   * array's size will be {@code length}, and its value at index {@code i} will be equal to the
+   * original's value at {@code offset + i}.
+   *
+   * @param uints  The array to copy values from.
+   * @param offset The index in {@code uints} of the first value to copy.
+   * @param length The number of values to copy.
+   * @throws IllegalArgumentException       if the provided {@code uints} array is {@code null}, or
+   *                                        if the combined size and magnitude lead to integer
+   *                                        overflow.
+   * @throws ArrayIndexOutOfBoundsException if the slice does not fit inside the {@code uints}
+   *                                        array.
+   */
+  public PackedUIntArray(int[] uints, int offset, int length) {
     if (uints == null) {
       throw new IllegalArgumentException("null array cannot be converted to a uint array");
     }
+    checkRange(uints.length, offset, length);
 
-    // Determine which value uses the most bits.
+    // Determine which value uses the most bits. Negative
+    // values all use 32 bits, so they're covered too.
     int widest = 0;
-    for (int value : uints) {
-      if (value < 0) {
-        // Negative values all use 32 bits,
-        // so if we find any we already know
-        // the magnitude is 32.
-        widest = -1;
-        break;
-      } else if (value > widest) {
-        widest = value;
-      }
+    for (int i = offset; i < offset + length; i++) {
+      widest |= uints[i];
     }
 
     // Initialize the array.
-    size = uints.length;
+    size = length;
     magnitude = BitsKt.getWidth(widest);
     valueMask = BitsKt.getFullMask(magnitude);
 
-    // Populate the array.
-    contents = new byte[bytesNeeded(size, magnitude)];
-    for (int i = 0; i < uints.length; i++) {
-      set(i, uints[i]);
-    }
+    // Populate the array. Calling bytesNeeded() makes sure
+    // the array can still be converted to a proto later.
+    bytesNeeded(size, magnitude);
+    words = new long[wordsNeeded(size, magnitude)];
+    pack(words, magnitude, 0, uints, offset, length);
+  }
+
+  /**
+   * Constructor for wrapping words that have already been packed, without copying them. Used by
+   * {@link MutablePackedUIntArray#toImmutable()}.
+   *
+   * @implNote No validation is done, so the caller must make sure that the {@code words} are not
+   * modified afterwards, and that any bits past the last uint are unset.
+   */
+  PackedUIntArray(int size, int magnitude, long[] words) {
+    this.size = size;
+    this.magnitude = magnitude;
+    this.valueMask = BitsKt.getFullMask(magnitude);
+    this.words = words;
   }
 
   /**
@@ -112,9 +175,12 @@ public final class PackedUIntArray {
    *
    * @throws NegativeArraySizeException if the provided {@code size} is negative.
    * @throws IllegalArgumentException   if {@code magnitude < 0 || magnitude > Integer.SIZE}, or if
-   *                                    the {@code contents} array has an unexpected length.
+   *                                    the {@code contents} have an unexpected length.
+   * @implNote The {@code contents} are read directly into the array's words, without copying them
+   * first. If they are already in canonical form, they are also kept for {@link #toProto()} to
+   * reuse.
    */
-  private PackedUIntArray(int size, int magnitude, byte[] contents) {
+  private PackedUIntArray(int size, int magnitude, ByteString contents) {
     if (size < 0) {
       throw new NegativeArraySizeException(Integer.toString(size));
     } else if (magnitude < 0 || magnitude > Integer.SIZE) {
@@ -122,27 +188,89 @@ public final class PackedUIntArray {
     }
 
     int bytesNeeded = bytesNeeded(size, magnitude);
-    if (contents.length != bytesNeeded) {
-      throw new IllegalArgumentException(bytesNeeded + " bytes expected, not " + contents.length);
+    if (contents.size() != bytesNeeded) {
+      throw new IllegalArgumentException(bytesNeeded + " bytes expected, not " + contents.size());
     }
 
     this.size = size;
     this.magnitude = magnitude;
-    this.contents = contents;
     this.valueMask = BitsKt.getFullMask(magnitude);
 
+    ByteBuffer bytes = contents.asReadOnlyByteBuffer();
+    this.words = toWords(bytes, wordsNeeded(size, magnitude));
+
+    // Any padding bytes after the last word should be
+    // unset. Otherwise the bytes can't be reused as-is.
+    boolean isCanonical = true;
+    while (bytes.hasRemaining()) {
+      isCanonical &= bytes.get() == 0;
+    }
+
     // Just to be safe, clear any extraneous trailing
-    // bits on the last byte. If set, they would mess
+    // bits on the last word. If set, they would mess
     // up equals() and hashCode().
-    if (magnitude != 0) {
-      // Determine which bit the last uint ends on.
-      long lastBitOffset = magnitude * (size - 1L) - 1;
+    int bitsUsed = (int) (((long) size * magnitude) & WORD_MASK);
+    if (bitsUsed != 0) {
+      long lastWord = words[words.length - 1];
+      long trimmedWord = lastWord & (-1L >>> (Long.SIZE - bitsUsed));
 
-      // Shift the mask past the last uint & negate it.
-      // This will unset any bits that aren't part of a
-      // uint.
-      contents[contents.length - 1] &= ~(valueMask << lastBitOffset);
+      isCanonical &= lastWord == trimmedWord;
+      words[words.length - 1] = trimmedWord;
     }
+
+    if (isCanonical) {
+      encoded = contents;
+    }
+  }
+
+  /**
+   * Packs a sequence of bytes into little-endian words. If the bytes run out before the last word is
+   * filled, the remaining bits in that word are left unset. Any bytes past the last word are
+   * ignored.
+   *
+   * @param bytes     The bytes to read, starting at the buffer's current position.
+   * @param wordCount The number of words to return.
+   */
+  private static long[] toWords(ByteBuffer bytes, int wordCount) {
+    long[] words = new long[wordCount];
+    bytes.order(ByteOrder.LITTLE_ENDIAN);
+
+    for (int i = 0; i < wordCount && bytes.hasRemaining(); i++) {
+      if (bytes.remaining() >= Long.BYTES) {
+        words[i] = bytes.getLong();
+      } else {
+        // Read what's left of a partial word.
+        for (int shift = 0; bytes.hasRemaining(); shift += Byte.SIZE) {
+          words[i] |= (bytes.get() & 0xFFL) << shift;
+        }
+      }
+    }
+
+    return words;
+  }
+
+  /**
+   * The opposite of {@link #toWords(ByteBuffer, int) toWords()}; splits the array's words into
+   * little-endian bytes.
+   *
+   * @return the array's contents, as they appear in its ProtoBuf form.
+   */
+  private byte[] toBytes() {
+    byte[] contents = new byte[bytesNeeded(size, magnitude)];
+    ByteBuffer bytes = ByteBuffer.wrap(contents).order(ByteOrder.LITTLE_ENDIAN);
+
+    for (long word : words) {
+      if (bytes.remaining() >= Long.BYTES) {
+        bytes.putLong(word);
+      } else {
+        // The last word might not need all 8 bytes.
+        for (int shift = 0; bytes.hasRemaining(); shift += Byte.SIZE) {
+          bytes.put((byte) (word >>> shift));
+        }
+      }
+    }
+
+    return contents;
   }
 
   /**
@@ -178,92 +306,312 @@ public final class PackedUIntArray {
    *                                        equals/exceeds the array's {@link #size() size}.
    */
   public int get(int index) {
-    return getOrReplace(index, false, -1);
+    if (index < 0 || index >= size) {
+      throw new ArrayIndexOutOfBoundsException(index);
+    } else if (magnitude == 0) {
+      return 0;
+    }
+
+    // Overall "index" of the uint's first bit, and the
+    // word that bit falls in.
+    long startBit = (long) index * magnitude;
+    int wordIndex = (int) (startBit >>> WORD_SHIFT);
+    int offset = (int) (startBit & WORD_MASK);
+
+    long value = words[wordIndex] >>> offset;
+
+    // If the uint doesn't fit in the rest of the word,
+    // its remaining (most-sig) bits are at the start of
+    // the next one.
+    int bitsInWord = Long.SIZE - offset;
+    if (bitsInWord < magnitude) {
+      value |= words[wordIndex + 1] << bitsInWord;
+    }
+
+    // Chop of any extra leading bits (most-sig) and return.
+    return (int) value & valueMask;
   }
 
   /**
-   * @param index Zero-based index of the uint.
-   * @param value UInt to replace the existing value with.
-   * @return the uint previously at that index.
-   * @throws ArrayIndexOutOfBoundsException if the {@code index} is negative, or if it
-   *                                        equals/exceeds the array's {@link #size() size}.
-   * @throws IllegalArgumentException       if the {@code value}, when unsigned, exceeds the array's
-   *                                        {@link #max() maximum value}.
+   * Creates a mutable array with the same size, magnitude, and values as this one. The arrays share
+   * their storage until the mutable one is first modified, so this is cheap to call.
+   *
+   * @return a mutable copy of the array.
    */
-  private int set(int index, int value) {
-    return getOrReplace(index, true, value);
+  public MutablePackedUIntArray toMutable() {
+    return new MutablePackedUIntArray(size, magnitude, words, true);
   }
 
   /**
-   * Helper method for performing the {@code get} operation, and optionally {@code set} (aka
-   * replace) as well.
+   * Unpacks all the array's uints into a primitive integer array ({@code int[]}).
    *
-   * @param doReplace   {@code true} if this was called by a setter. {@code false} otherwise.
-   * @param replacement Value to insert at the {@code index}.
-   * @return the uint at the index, or the previous value if {@code doReplace == true}.
-   * @throws ArrayIndexOutOfBoundsException if {@code index < 0 || index >= size}.
-   * @throws IllegalArgumentException       if {@code doReplace && replacement > max}, when {@code
-   *                                        replacement} is unsigned.
-   * @implNote {@code get} and {@code set} are combined in this method because they share a lot of
-   * the same bitwise logic. {@link #set(int, int) set()} also acts as a getter for the previous
-   * value anyways, so it also saves time when setting.
-   */
-  private int getOrReplace(int index, boolean doReplace, int replacement) {
-    if (index < 0 || index >= size) {
-      throw new ArrayIndexOutOfBoundsException(index);
-    } else if (doReplace && Integer.toUnsignedLong(replacement) > max()) {
-      throw new IllegalArgumentException("value > max: " + replacement + " > " + max());
-    } else if (magnitude == 0) {
-      return 0;
+   * @return a new array with the same size and values as this one.
+   */
+  public int[] toIntArray() {
+    int[] uints = new int[size];
+    copyInto(uints, 0);
+    return uints;
+  }
+
+  /**
+   * Unpacks all the array's uints into an existing primitive integer array ({@code int[]}). Each
+   * value at index {@code i} of this array is copied to index {@code offset + i} of the
+   * {@code destination}.
+   *
+   * @param destination The array to copy values into.
+   * @param offset      The index in the {@code destination} where the first value should go.
+   * @throws IllegalArgumentException       if the {@code destination} is {@code null}.
+   * @throws ArrayIndexOutOfBoundsException if the {@code destination} cannot hold all of the
+   *                                        array's values, starting at the {@code offset}.
+   */
+  public void copyInto(int[] destination, int offset) {
+    if (destination == null) {
+      throw new IllegalArgumentException("null array cannot be copied into");
     }
+    checkRange(destination.length, offset, size);
 
-    // Returned at the end.
-    int value = 0;
+    unpack(words, magnitude, 0, destination, offset, size);
+  }
 
-    // Overall "index" of the uint's first bit in the
-    // content array. This is only needed to determine
-    // where to start and stop iterating (startIndex &
-    // endIndex).
-    long startBit = (long) index * magnitude;
+  /**
+   * Same as {@link #copyInto(int[], int)}, but only {@code length} values are copied, starting from
+   * the one at {@code index}.
+   *
+   * @throws ArrayIndexOutOfBoundsException if either array is too small for the range.
+   */
+  void copyRangeInto(int index, int[] destination, int offset, int length) {
+    checkRange(size, index, length);
+    checkRange(destination.length, offset, length);
+
+    unpack(words, magnitude, index, destination, offset, length);
+  }
+
+  /**
+   * @throws ArrayIndexOutOfBoundsException if a slice of an array, starting at the {@code offset}
+   *                                        and containing {@code length} values, does not fit in an
+   *                                        array of the provided {@code arrayLength}.
+   */
+  static void checkRange(int arrayLength, int offset, int length) {
+    if (offset < 0 || length < 0 || offset > arrayLength - length) {
+      throw new ArrayIndexOutOfBoundsException("Range [" + offset + ", " + offset + " + " + length
+                                               + ") out of bounds for length " + arrayLength);
+    }
+  }
+
+  /**
+   * Unpacks a run of consecutive uints from an array of packed words.
+   * <p><br>
+   * For magnitudes that evenly divide {@link Long#SIZE}, no uint crosses a word boundary, so each
+   * word is unpacked with a fixed sequence of shifts. Those magnitudes are passed to the kernel as
+   * constants so that the JIT can unroll it. Other magnitudes are unpacked by streaming bits from
+   * one word into the next.
+   *
+   * @param words       The packed uints.
+   * @param magnitude   The number of bits per uint.
+   * @param index       The index of the first uint to unpack.
+   * @param destination The array to unpack the uints into.
+   * @param offset      The index in the {@code destination} of the first uint.
+   * @param length      The number of uints to unpack.
+   * @implNote No bounds checking is done.
+   */
+  static void unpack(long[] words, int magnitude, int index, int[] destination, int offset,
+      int length) {
+    switch (magnitude) {
+      case 0:
+        Arrays.fill(destination, offset, offset + length, 0);
+        return;
+      case 1:
+        unpackAligned(words, 1, index, destination, offset, length);
+        return;
+      case 2:
+        unpackAligned(words, 2, index, destination, offset, length);
+        return;
+      case 4:
+        unpackAligned(words, 4, index, destination, offset, length);
+        return;
+      case 8:
+        unpackAligned(words, 8, index, destination, offset, length);
+        return;
+      case 16:
+        unpackAligned(words, 16, index, destination, offset, length);
+        return;
+      case 32:
+        unpackAligned(words, 32, index, destination, offset, length);
+        return;
+      default:
+        unpackUnaligned(words, magnitude, index, destination, offset, length);
+    }
+  }
+
+  /**
+   * {@link #unpack(long[], int, int, int[], int, int) unpack()} for magnitudes that evenly divide
+   * {@link Long#SIZE}.
+   */
+  private static void unpackAligned(long[] words, int magnitude, int index, int[] destination,
+      int offset, int length) {
+    int perWord = Long.SIZE / magnitude;
+    long mask = (1L << magnitude) - 1;
+
+    int end = offset + length;
+    int wordIndex = index / perWord;
+
+    // Unpack the uints before the first full word.
+    int skipped = index % perWord;
+    if (skipped != 0) {
+      long word = words[wordIndex++] >>> (skipped * magnitude);
+      for (int i = skipped; i < perWord && offset < end; i++) {
+        destination[offset++] = (int) (word & mask);
+        word >>>= magnitude;
+      }
+    }
+
+    // Unpack whole words.
+    while (end - offset >= perWord) {
+      long word = words[wordIndex++];
+      for (int i = 0; i < perWord; i++) {
+        destination[offset++] = (int) (word >>> (i * magnitude) & mask);
+      }
+    }
 
-    // The uint's offset (in bits) within the current
-    // byte. Always zero after the first byte because we
-    // continue reading from the rightmost(least-sig)
-    // bit of the next byte.
-    int offset = (int) (startBit % Byte.SIZE);
+    // Unpack the uints after the last full word.
+    if (offset < end) {
+      long word = words[wordIndex];
+      while (offset < end) {
+        destination[offset++] = (int) (word & mask);
+        word >>>= magnitude;
+      }
+    }
+  }
 
-    // # of bits of the uint we have so far. This is
-    // increased variably with each iteration. Used to
-    // determine how far new bits should be shifted onto the
-    // return value.
-    int bitsConsumed = 0;
+  /**
+   * {@link #unpack(long[], int, int, int[], int, int) unpack()} for any other magnitudes.
+   */
+  private static void unpackUnaligned(long[] words, int magnitude, int index, int[] destination,
+      int offset, int length) {
+    if (length == 0) {
+      return;
+    }
 
-    // Content array indices that we need to iterate between.
-    int startIndex = (int) Math.floorDiv(startBit, Byte.SIZE);
-    int endIndex = (int) Math.floorDiv(startBit + magnitude - 1, Byte.SIZE);
+    long mask = (1L << magnitude) - 1;
+    long startBit = (long) index * magnitude;
+    int wordIndex = (int) (startBit >>> WORD_SHIFT);
+    int bitOffset = (int) (startBit & WORD_MASK);
+
+    int end = offset + length;
+    long word = words[wordIndex];
+    while (offset < end) {
+      long value = word >>> bitOffset;
+      bitOffset += magnitude;
+
+      if (bitOffset >= Long.SIZE) {
+        // The uint reaches the end of the word, so
+        // move onto the next one.
+        bitOffset -= Long.SIZE;
+        wordIndex++;
+        word = wordIndex < words.length ? words[wordIndex] : 0;
+
+        // If the uint didn't end exactly on the
+        // boundary, its high bits are at the start
+        // of the new word.
+        if (bitOffset != 0) {
+          value |= word << (magnitude - bitOffset);
+        }
+      }
 
-    for (int i = startIndex; i <= endIndex; i++) {
-      value |= ((contents[i] & 0xFF) >>> offset) << bitsConsumed;
+      destination[offset++] = (int) (value & mask);
+    }
+  }
+
+  /**
+   * Packs a run of uints from a primitive integer array into consecutive positions of an array of
+   * packed words, overwriting the values already there.
+   *
+   * @param words     The packed uints.
+   * @param magnitude The number of bits per uint.
+   * @param index     The index of the first uint to overwrite.
+   * @param source    The values to pack.
+   * @param offset    The index in {@code source} of the first value.
+   * @param length    The number of values to pack.
+   * @implNote No bounds checking is done, and values are not checked against the magnitude. Any
+   * excess high-order bits are discarded.
+   */
+  static void pack(long[] words, int magnitude, int index, int[] source, int offset, int length) {
+    if (magnitude == 0 || length == 0) {
+      return;
+    }
 
-      if (doReplace) {
-        contents[i] &= ~(valueMask << offset); // Clear the bits used by the uint.
-        contents[i] |= (replacement << offset) >>> bitsConsumed; // Insert new value.
+    long mask = (1L << magnitude) - 1;
+    long startBit = (long) index * magnitude;
+    int wordIndex = (int) (startBit >>> WORD_SHIFT);
+    int bitOffset = (int) (startBit & WORD_MASK);
+
+    // Keep any bits before the first uint.
+    long word = words[wordIndex] & ~(-1L << bitOffset);
+
+    int end = offset + length;
+    while (offset < end) {
+      long value = source[offset++] & mask;
+      word |= value << bitOffset;
+      bitOffset += magnitude;
+
+      if (bitOffset >= Long.SIZE) {
+        // The word is full, so move onto the next one,
+        // carrying over any of the uint's bits that
+        // didn't fit.
+        words[wordIndex++] = word;
+        bitOffset -= Long.SIZE;
+        word = bitOffset == 0
+            ? 0
+            : value >>> (magnitude - bitOffset);
       }
+    }
 
-      // Determine how many of the uint's bits came from
-      // the current byte. The left expression represents
-      // how many bits we *could* have read from the byte,
-      // given our offset. The right expression represents
-      // how many bits we still *need* to read overall.
-      bitsConsumed += Math.min(Byte.SIZE - offset, magnitude - bitsConsumed);
+    // Keep any bits after the last uint.
+    if (bitOffset != 0) {
+      words[wordIndex] = word | (words[wordIndex] & (-1L << bitOffset));
+    }
+  }
 
-      // If the loop continues, resume reading from the
-      // rightmost (least-sig) bit of the next byte.
-      offset = 0;
+  /**
+   * Sets every uint in a range of an array of packed words to the same value.
+   *
+   * @param words     The packed uints.
+   * @param magnitude The number of bits per uint.
+   * @param fromIndex The index of the first uint to overwrite (inclusive).
+   * @param toIndex   The index after the last uint to overwrite (exclusive).
+   * @param value     The value to set.
+   * @implNote No bounds checking is done, and the value is not checked against the magnitude. Any
+   * excess high-order bits are discarded.
+   */
+  static void fill(long[] words, int magnitude, int fromIndex, int toIndex, int value) {
+    if (magnitude == 0 || fromIndex >= toIndex) {
+      return;
     }
 
-    // Chop of any extra leading bits (most-sig) and return.
-    return value & valueMask;
+    long mask = (1L << magnitude) - 1;
+    long bits = value & mask;
+    long startBit = (long) fromIndex * magnitude;
+    int wordIndex = (int) (startBit >>> WORD_SHIFT);
+    int bitOffset = (int) (startBit & WORD_MASK);
+
+    // Same as pack(), but with the same value each time.
+    long word = words[wordIndex] & ~(-1L << bitOffset);
+    for (int i = fromIndex; i < toIndex; i++) {
+      word |= bits << bitOffset;
+      bitOffset += magnitude;
+
+      if (bitOffset >= Long.SIZE) {
+        words[wordIndex++] = word;
+        bitOffset -= Long.SIZE;
+        word = bitOffset == 0
+            ? 0
+            : bits >>> (magnitude - bitOffset);
+      }
+    }
+
+    if (bitOffset != 0) {
+      words[wordIndex] = word | (words[wordIndex] & (-1L << bitOffset));
+    }
   }
 
   /**
@@ -275,10 +623,26 @@ public final class PackedUIntArray {
     return PackedUIntArrayData.newBuilder()
         .setSize(size)
         .setMagnitude(magnitude)
-        .setContents(ByteString.copyFrom(contents))
+        .setContents(getEncoded())
         .build();
   }
 
+  /**
+   * @return the array's contents as they appear in its ProtoBuf form.
+   * @implNote The bytes are only created the first time this is called. They are never modified
+   * afterwards, so they can be wrapped in a {@link ByteString} without making a defensive copy.
+   */
+  private ByteString getEncoded() {
+    ByteString result = encoded;
+    if (result == null) {
+      // Benign race: ByteString is immutable, so any
+      // thread that sees it will see all of its bytes.
+      result = UnsafeByteOperations.unsafeWrap(toBytes());
+      encoded = result;
+    }
+    return result;
+  }
+
   @Override
   public String toString() {
     if (size == 0) {
@@ -286,8 +650,8 @@ public final class PackedUIntArray {
     }
 
     StringBuilder sb = new StringBuilder("[");
-    for (int i = 0; i < size; i++) {
-      sb.append(get(i)).append(", ");
+    for (int value : toIntArray()) {
+      sb.append(value).append(", ");
     }
     sb.replace(sb.length() - 2, sb.length() - 1, "]");
 
@@ -305,13 +669,13 @@ public final class PackedUIntArray {
     PackedUIntArray array = (PackedUIntArray) o;
     return size == array.size &&
            magnitude == array.magnitude &&
-           Arrays.equals(contents, array.contents);
+           Arrays.equals(words, array.words);
   }
 
   @Override
   public int hashCode() {
     int result = Objects.hash(size, magnitude);
-    result = 31 * result + Arrays.hashCode(contents);
+    result = 31 * result + Arrays.hashCode(words);
     return result;
   }
 }
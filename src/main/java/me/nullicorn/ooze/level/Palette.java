@@ -6,8 +6,10 @@ import com.github.ooze.protos.PaletteData.Builder;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -41,9 +43,14 @@ public final class Palette implements Iterable<BlockState> {
 
   /**
    * A factory for converting palettes from their ProtoBuf form.
+   * <p><br>
+   * Identical states are shared with other palettes through the {@link
+   * BlockStateRegistry#fromProto(BlockStateData) registry}. Loading a palette never decodes its
+   * states' NBT properties; that only happens once they're first needed, such as when the palette
+   * is hashed or searched.
    *
-   * @throws IOException              if the properties of any of the palette's states could not be
-   *                                  NBT-decoded.
+   * @throws IOException              if the properties of any of the palette's states are in the
+   *                                  compact string format, but are malformed.
    * @throws IllegalArgumentException if the {@code proto} is null.
    */
   public static Palette fromProto(PaletteData proto) throws IOException {
@@ -53,9 +60,12 @@ public final class Palette implements Iterable<BlockState> {
 
     List<BlockState> states = new ArrayList<>();
 
-    // Wrap each state's proto in a BlockState object.
+    // Resolve each state's proto through the registry, so
+    // identical states across palettes share an instance.
+    // They're interned once they're first hashed, which
+    // leaves their properties undecoded until then.
     for (BlockStateData stateProto : proto.getStatesList()) {
-      BlockState state = BlockState.fromProto(stateProto);
+      BlockState state = BlockStateRegistry.fromProto(stateProto);
       states.add(state);
     }
 
@@ -66,6 +76,19 @@ public final class Palette implements Iterable<BlockState> {
   private final int              dataVersion;
   private final List<BlockState> states;
 
+  /**
+   * The index of each state in the palette. If a state appears more than once, only its first index
+   * is kept. Built the first time it's needed, since that hashes every state.
+   */
+  private volatile Map<BlockState, Integer> indices;
+
+  /**
+   * The palette's {@link #hashCode() hash code}, which never changes because palettes are
+   * immutable. Computed the first time it's needed, for the same reason as {@link #indices}. Until
+   * then, it's {@code 0}.
+   */
+  private int hash;
+
   /**
    * @param name        See {@link #getName()}.
    * @param dataVersion See {@link #getDataVersion()}.
@@ -96,6 +119,17 @@ public final class Palette implements Iterable<BlockState> {
     this.states = Collections.unmodifiableList(new ArrayList<>(states));
   }
 
+  /**
+   * Creates a palette without validating or copying its states. Used by {@link PaletteBuilder},
+   * which has already checked them and indexed them.
+   */
+  Palette(String name, int dataVersion, List<BlockState> states, Map<BlockState, Integer> indices) {
+    this.name = name;
+    this.dataVersion = dataVersion;
+    this.states = Collections.unmodifiableList(states);
+    this.indices = indices;
+  }
+
   /**
    * @return the name that cells can use to refer to the palette.
    */
@@ -145,17 +179,67 @@ public final class Palette implements Iterable<BlockState> {
     return states.get(index);
   }
 
+  /**
+   * Finds the index of a state in the palette in constant time, without needing to compare it to
+   * every other state.
+   *
+   * @return the first index of the {@code state} in the palette, or {@code -1} if the palette does
+   * not have it.
+   */
+  public int indexOf(BlockState state) {
+    Integer index = indices().get(state);
+    return index == null
+        ? -1
+        : index;
+  }
+
+  /**
+   * @return whether the palette has the {@code state} at any index.
+   */
+  public boolean contains(BlockState state) {
+    return indices().containsKey(state);
+  }
+
+  /**
+   * @return the {@link #indices} of the palette's states, building them if that hasn't been done
+   * yet.
+   */
+  private Map<BlockState, Integer> indices() {
+    // Racy, but harmless, since every thread builds an
+    // equal map, and only publishes it once it's full.
+    Map<BlockState, Integer> result = indices;
+    if (result == null) {
+      result = new HashMap<>(Math.max(16, (int) (states.size() / 0.75f) + 1));
+      for (int i = 0; i < states.size(); i++) {
+        result.putIfAbsent(states.get(i), i);
+      }
+      indices = result;
+    }
+    return result;
+  }
+
   /**
    * @return a Protocol Buffer with the same {@link #getName() name}, {@link #getDataVersion() data
-   * version}, and block states as the palette.
+   * version}, and block states as the palette. The states' properties are NBT-encoded.
+   * @see #toProto(boolean)
    */
   public PaletteData toProto() throws IOException {
+    return toProto(false);
+  }
+
+  /**
+   * Same as {@link #toProto()}, but the states' properties can optionally use a {@link
+   * BlockState#toProto(boolean) compact format} instead of NBT.
+   *
+   * @param compactProperties Whether the compact format should be used when possible.
+   */
+  public PaletteData toProto(boolean compactProperties) throws IOException {
     Builder palette = PaletteData.newBuilder()
         .setName(name)
         .setDataVersion(dataVersion);
 
     for (BlockState state : states) {
-      palette.addStates(state.toProto());
+      palette.addStates(state.toProto(compactProperties));
     }
     return palette.build();
   }
@@ -203,13 +287,25 @@ public final class Palette implements Iterable<BlockState> {
       return false;
     }
     Palette that = (Palette) o;
-    return dataVersion == that.dataVersion &&
+    return hashCode() == that.hashCode() &&
+           dataVersion == that.dataVersion &&
            name.equals(that.name) &&
            states.equals(that.states);
   }
 
   @Override
   public int hashCode() {
+    // Racy, but harmless, since every thread computes the
+    // same value.
+    int h = hash;
+    if (h == 0) {
+      h = computeHash();
+      hash = h;
+    }
+    return h;
+  }
+
+  private int computeHash() {
     return Objects.hash(name, dataVersion, states);
   }
 }
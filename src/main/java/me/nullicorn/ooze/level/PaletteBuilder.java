@@ -0,0 +1,157 @@
+package me.nullicorn.ooze.level;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A helper for creating {@link Palette palettes} one state at a time, such that each distinct
+ * state is only added once.
+ * <p><br>
+ * States are given indices in the order they are first {@link #add(BlockState) added}, so the
+ * index returned for a state can be written to a block array right away and will still be valid in
+ * the {@link #build() built} palette.
+ *
+ * @author Nullicorn
+ */
+public final class PaletteBuilder {
+
+  private final String                   name;
+  private final int                      dataVersion;
+  private       List<BlockState>         states;
+  private       Map<BlockState, Integer> indices;
+
+  /**
+   * Whether {@link #states} and {@link #indices} are also being used by a palette that was {@link
+   * #build() built}, and must be copied before being changed.
+   */
+  private boolean isShared;
+
+  /**
+   * Creates a builder for an initially empty palette.
+   *
+   * @param name        See {@link Palette#getName()}.
+   * @param dataVersion See {@link Palette#getDataVersion()}.
+   * @throws IllegalArgumentException if the {@code name} is {@code null}.
+   */
+  public PaletteBuilder(String name, int dataVersion) {
+    if (name == null) {
+      throw new IllegalArgumentException("name cannot be null");
+    }
+
+    this.name = name;
+    this.dataVersion = dataVersion;
+    states = new ArrayList<>();
+    indices = new HashMap<>();
+  }
+
+  /**
+   * Creates a builder whose palette initially has the same states as an existing one, at the same
+   * indices.
+   *
+   * @param name See {@link Palette#getName()}.
+   * @param base The palette whose states and {@link Palette#getDataVersion() data version} should be
+   *             copied.
+   * @throws IllegalArgumentException if the {@code name} or {@code base} palette are {@code null}.
+   */
+  public PaletteBuilder(String name, Palette base) {
+    if (name == null) {
+      throw new IllegalArgumentException("name cannot be null");
+    } else if (base == null) {
+      throw new IllegalArgumentException("base palette cannot be null");
+    }
+
+    this.name = name;
+    this.dataVersion = base.getDataVersion();
+    states = new ArrayList<>(base.size() + 1);
+    indices = new HashMap<>(Math.max(16, (int) (base.size() / 0.75f) + 2));
+    for (BlockState state : base) {
+      indices.putIfAbsent(state, states.size());
+      states.add(state);
+    }
+  }
+
+  /**
+   * @return the name of the palette being built.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the number of states added to the palette so far.
+   */
+  public int size() {
+    return states.size();
+  }
+
+  /**
+   * @return the state at the {@code index} in the palette so far.
+   * @throws IndexOutOfBoundsException if the index is invalid, which happens when {@code index < 0
+   *                                   || index >= size()}.
+   */
+  public BlockState get(int index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("Index must be from 0 to " + (size() - 1) + ": " + index);
+    }
+    return states.get(index);
+  }
+
+  /**
+   * @return the index of the {@code state} in the palette so far, or {@code -1} if it hasn't been
+   * added.
+   */
+  public int indexOf(BlockState state) {
+    Integer index = indices.get(state);
+    return index == null
+        ? -1
+        : index;
+  }
+
+  /**
+   * Adds a state to the end of the palette, unless the palette already has it.
+   *
+   * @return the state's index in the palette, whether it was just added or not.
+   * @throws IllegalArgumentException if the {@code state} is {@code null}.
+   */
+  public int add(BlockState state) {
+    if (state == null) {
+      throw new IllegalArgumentException("null state cannot be added to palette");
+    }
+
+    Integer existing = indices.get(state);
+    if (existing != null) {
+      return existing;
+    }
+
+    if (isShared) {
+      copyOnWrite();
+    }
+
+    int index = states.size();
+    states.add(state);
+    indices.put(state, index);
+    return index;
+  }
+
+  /**
+   * Creates a palette with all the states added so far, in the order they were first added.
+   * <p><br>
+   * The builder can still be used afterwards, and won't affect the palettes it already built.
+   */
+  public Palette build() {
+    isShared = true;
+    return new Palette(name, dataVersion, states, indices);
+  }
+
+  /**
+   * Stops sharing {@link #states} and {@link #indices} with a built palette, by replacing them with
+   * copies.
+   */
+  private void copyOnWrite() {
+    states = new ArrayList<>(states);
+    indices = new HashMap<>(indices);
+    isShared = false;
+  }
+}
@@ -0,0 +1,62 @@
+package me.nullicorn.ooze.level;
+
+/**
+ * A structure for associating unique integer keys with unsigned integer values.
+ *
+ * @author Nullicorn
+ * @see ArrayUIntMap
+ * @see HashUIntMap
+ */
+interface UIntMap {
+
+  /**
+   * Creates an empty map suited to keys in the range {@code [0, keyBound)}.
+   * <p><br>
+   * If the range is small enough relative to the number of entries expected, the map will be
+   * {@link ArrayUIntMap directly indexed}. Otherwise it will be a {@link HashUIntMap hash map}.
+   * Either way, keys outside the range can still be used.
+   *
+   * @param keyBound     One more than the largest key expected.
+   * @param expectedSize The number of entries expected.
+   * @throws IllegalArgumentException if either argument is negative.
+   */
+  static UIntMap forKeys(int keyBound, int expectedSize) {
+    if (keyBound < 0) {
+      throw new IllegalArgumentException("keyBound cannot be negative: " + keyBound);
+    } else if (expectedSize < 0) {
+      throw new IllegalArgumentException("expectedSize cannot be negative: " + expectedSize);
+    }
+
+    // A hash map uses at least 4 ints per entry, while the
+    // array uses 1 per possible key.
+    return keyBound <= 4L * expectedSize + 16
+        ? new ArrayUIntMap(keyBound)
+        : new HashUIntMap(expectedSize);
+  }
+
+  /**
+   * @return the number of key/value pairs in the map.
+   */
+  int size();
+
+  /**
+   * Retrieves the value associated with a {@code key}, if it has one.
+   *
+   * @param key The key whose respective value should be returned.
+   * @return the value for the key, or {@code -1} if none is set.
+   * @see #set(int, int)
+   */
+  int get(int key);
+
+  /**
+   * Associates a value with a unique key, replacing the existing value for that key if applicable.
+   *
+   * @param key   A unique integer that can be used to retrieve the value later.
+   * @param value An integer value to associate with the key.
+   * @return the replaced value, or {@code -1} if the key was not already in the map.
+   * @throws IllegalArgumentException if the {@code value} is negative, or if the map does not
+   *                                  support the {@code key}.
+   * @see #get(int)
+   */
+  int set(int key, int value);
+}
@@ -1,16 +1,22 @@
 package me.nullicorn.ooze.level.nbt;
 
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.AbstractSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 import me.nullicorn.nedit.type.NBTCompound;
 
 /**
- * An immutable wrapper around the NBTCompound class.
+ * An immutable wrapper around the NBTCompound class. Any compounds and lists inside it are
+ * immutable too, so that immutable compounds can share them with each other.
  *
  * @author Nullicorn
  * @implNote Created externally via {@link NbtHelper#copyToImmutable(NBTCompound) NbtHelper}.
@@ -28,13 +34,36 @@ class ImmutableCompound extends NBTCompound {
   }
 
   /**
+   * A read-only view of the compound's keys.
+   */
+  private final Set<String> keys;
+
+  /**
+   * A read-only view of the compound's values.
+   */
+  private final Collection<Object> values;
+
+  /**
+   * A read-only view of the compound's entries.
+   */
+  private final Set<Entry<String, Object>> entries;
+
+  /**
+   * @param isCopy Whether mutable values (such as arrays) should be copied. If {@code false}, the
+   *               {@code source} compound must not be modified afterwards.
    * @throws IllegalArgumentException if the {@code source} compound is {@code null}.
    */
-  ImmutableCompound(NBTCompound source) {
+  ImmutableCompound(NBTCompound source, boolean isCopy) {
     if (source == null) {
       throw new IllegalArgumentException("source compound cannot be null");
     }
-    source.forEach((name, value) -> super.put(name, NbtHelper.deepCopy(value)));
+    source.forEach((name, value) -> super.put(name, NbtHelper.toImmutable(value, isCopy)));
+
+    // The compound never changes, so its views can be
+    // created once up front.
+    keys = Collections.unmodifiableSet(super.keySet());
+    values = Collections.unmodifiableCollection(super.values());
+    entries = new EntrySet();
   }
 
   @Override
@@ -107,37 +136,86 @@ class ImmutableCompound extends NBTCompound {
 
   @Override
   public Set<String> keySet() {
-    return Collections.unmodifiableSet(super.keySet());
+    return keys;
   }
 
   @Override
   public Collection<Object> values() {
-    return Collections.unmodifiableCollection(super.values());
+    return values;
   }
 
   @Override
   public Set<Entry<String, Object>> entrySet() {
-    // Make the entries themselves immutable.
-    Set<Entry<String, Object>> immutableEntries = super.entrySet().stream().map(
-        entry -> new Entry<String, Object>() {
+    return entries;
+  }
 
-          @Override
-          public String getKey() {
-            return entry.getKey();
-          }
+  /**
+   * A read-only view of the compound's entries, backed by an array of immutable entries that is
+   * built once. Iterating it doesn't allocate anything besides the iterator, and lookups use the
+   * compound itself.
+   */
+  private final class EntrySet extends AbstractSet<Entry<String, Object>> {
+
+    /**
+     * The entries themselves need to be immutable too. They also need to implement equals() &
+     * hashCode(), which the map's own methods rely on.
+     */
+    private final Entry<String, Object>[] array;
+
+    EntrySet() {
+      // Arrays of a generic type can't be created directly.
+      // Safe because only Entry<String, Object>s are added.
+      @SuppressWarnings("unchecked")
+      Entry<String, Object>[] entries =
+          (Entry<String, Object>[]) new Entry<?, ?>[ImmutableCompound.super.size()];
+
+      int i = 0;
+      for (Entry<String, Object> entry : ImmutableCompound.super.entrySet()) {
+        entries[i++] = new SimpleImmutableEntry<>(entry);
+      }
+      array = entries;
+    }
 
-          @Override
-          public Object getValue() {
-            return entry.getValue();
-          }
+    @Override
+    public int size() {
+      return array.length;
+    }
 
-          @Override
-          public Object setValue(Object value) {
-            return throwUnsupported();
-          }
-        }).collect(Collectors.toSet());
+    @Override
+    public boolean contains(Object o) {
+      if (!(o instanceof Entry)) {
+        return false;
+      }
+      Entry<?, ?> entry = (Entry<?, ?>) o;
+      Object key = entry.getKey();
+      return containsKey(key) && Objects.equals(get(key), entry.getValue());
+    }
 
-    // Make the set itself immutable.
-    return Collections.unmodifiableSet(immutableEntries);
+    @Override
+    public void forEach(Consumer<? super Entry<String, Object>> action) {
+      for (Entry<String, Object> entry : array) {
+        action.accept(entry);
+      }
+    }
+
+    @Override
+    public Iterator<Entry<String, Object>> iterator() {
+      return new Iterator<Entry<String, Object>>() {
+        private int next;
+
+        @Override
+        public boolean hasNext() {
+          return next < array.length;
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+          if (next >= array.length) {
+            throw new NoSuchElementException();
+          }
+          return array[next++];
+        }
+      };
+    }
   }
 }
@@ -0,0 +1,190 @@
+package me.nullicorn.ooze.level.nbt;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import me.nullicorn.nedit.type.NBTList;
+
+/**
+ * An immutable counterpart to the NBTList class, used for lists inside {@link ImmutableCompound
+ * immutable compounds}.
+ *
+ * @author Nullicorn
+ * @implNote Created via {@link NbtHelper#toImmutable(Object, boolean) NbtHelper}.
+ */
+class ImmutableList extends NBTList {
+
+  /**
+   * Helper function that throws an {@link UnsupportedOperationException}. Should be called by all
+   * methods that could otherwise modify the list's state.
+   *
+   * @param <T> Ignored. Allows the function to be called from {@code return}.
+   */
+  private static <T> T throwUnsupported() {
+    throw new UnsupportedOperationException("Cannot modify immutable list");
+  }
+
+  /**
+   * @param isCopy Whether mutable elements (such as arrays) should be copied. If {@code false},
+   *               the {@code source} list must not be modified afterwards.
+   * @throws IllegalArgumentException if the {@code source} list is {@code null}.
+   */
+  ImmutableList(NBTList source, boolean isCopy) {
+    super(requireSource(source).getContentType());
+    for (Object element : source) {
+      super.add(NbtHelper.toImmutable(element, isCopy));
+    }
+  }
+
+  private static NBTList requireSource(NBTList source) {
+    if (source == null) {
+      throw new IllegalArgumentException("source list cannot be null");
+    }
+    return source;
+  }
+
+  @Override
+  public boolean add(Object element) {
+    return throwUnsupported();
+  }
+
+  @Override
+  public void add(int index, Object element) {
+    throwUnsupported();
+  }
+
+  @Override
+  public boolean addAll(Collection<?> c) {
+    return throwUnsupported();
+  }
+
+  @Override
+  public boolean addAll(int index, Collection<?> c) {
+    return throwUnsupported();
+  }
+
+  @Override
+  public Object set(int index, Object element) {
+    return throwUnsupported();
+  }
+
+  @Override
+  public Object remove(int index) {
+    return throwUnsupported();
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    return throwUnsupported();
+  }
+
+  @Override
+  public boolean removeAll(Collection<?> c) {
+    return throwUnsupported();
+  }
+
+  @Override
+  public boolean retainAll(Collection<?> c) {
+    return throwUnsupported();
+  }
+
+  @Override
+  public boolean removeIf(Predicate<? super Object> filter) {
+    return throwUnsupported();
+  }
+
+  @Override
+  public void replaceAll(UnaryOperator<Object> operator) {
+    throwUnsupported();
+  }
+
+  @Override
+  public void sort(Comparator<? super Object> c) {
+    throwUnsupported();
+  }
+
+  @Override
+  public void clear() {
+    throwUnsupported();
+  }
+
+  @Override
+  public Iterator<Object> iterator() {
+    return listIterator(0);
+  }
+
+  @Override
+  public ListIterator<Object> listIterator() {
+    return listIterator(0);
+  }
+
+  @Override
+  public ListIterator<Object> listIterator(int index) {
+    ListIterator<Object> iterator = super.listIterator(index);
+
+    // Same as the list's own iterator, but with no way to
+    // modify the list.
+    return new ListIterator<Object>() {
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public Object next() {
+        return iterator.next();
+      }
+
+      @Override
+      public boolean hasPrevious() {
+        return iterator.hasPrevious();
+      }
+
+      @Override
+      public Object previous() {
+        return iterator.previous();
+      }
+
+      @Override
+      public int nextIndex() {
+        return iterator.nextIndex();
+      }
+
+      @Override
+      public int previousIndex() {
+        return iterator.previousIndex();
+      }
+
+      @Override
+      public void forEachRemaining(Consumer<? super Object> action) {
+        iterator.forEachRemaining(action);
+      }
+
+      @Override
+      public void remove() {
+        throwUnsupported();
+      }
+
+      @Override
+      public void set(Object element) {
+        throwUnsupported();
+      }
+
+      @Override
+      public void add(Object element) {
+        throwUnsupported();
+      }
+    };
+  }
+
+  @Override
+  public List<Object> subList(int fromIndex, int toIndex) {
+    return Collections.unmodifiableList(super.subList(fromIndex, toIndex));
+  }
+}
@@ -0,0 +1,249 @@
+package me.nullicorn.ooze.level.nbt;
+
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import me.nullicorn.nedit.type.NBTCompound;
+
+/**
+ * A compound that holds onto its NBT-encoded bytes, and is only decoded the first time any of its
+ * contents are needed. Until then, it can be {@link NbtHelper#encodeToBytes(NBTCompound) encoded}
+ * again just by returning the original bytes.
+ * <p><br>
+ * Once decoded, all methods are forwarded to the decoded compound. If the compound is mutable, its
+ * original bytes are discarded at that point, since it (or any of its children) may be modified
+ * afterwards.
+ *
+ * @author Nullicorn
+ * @implNote Created externally via {@link NbtHelper#decodeLazily(ByteString) NbtHelper}. The
+ * {@link java.util.HashMap} that this class inherits is never used.
+ */
+class LazyCompound extends NBTCompound {
+
+  private final boolean isImmutable;
+
+  /**
+   * The compound's NBT-encoded form, or {@code null} if it has been decoded and may have changed
+   * since.
+   */
+  private volatile ByteString encoded;
+
+  /**
+   * The decoded compound, or {@code null} if it hasn't been decoded yet.
+   */
+  private volatile NBTCompound decoded;
+
+  /**
+   * @param encoded     The compound's NBT-encoded bytes.
+   * @param isImmutable Whether the compound should be {@link ImmutableCompound immutable} once it's
+   *                    decoded.
+   * @throws IllegalArgumentException if the {@code encoded} bytes are {@code null}.
+   */
+  LazyCompound(ByteString encoded, boolean isImmutable) {
+    if (encoded == null) {
+      throw new IllegalArgumentException("null bytes cannot be decoded");
+    }
+    this.encoded = encoded;
+    this.isImmutable = isImmutable;
+  }
+
+  /**
+   * @return whether the compound cannot be modified.
+   */
+  boolean isImmutable() {
+    return isImmutable;
+  }
+
+  /**
+   * @return the compound's original NBT-encoded bytes, or {@code null} if it may have changed since
+   * it was decoded.
+   */
+  ByteString encoded() {
+    return encoded;
+  }
+
+  /**
+   * @return the decoded compound, decoding it if that hasn't been done yet.
+   * @throws UncheckedIOException if the compound's bytes are not valid NBT.
+   */
+  private NBTCompound decoded() {
+    NBTCompound result = decoded;
+    if (result == null) {
+      synchronized (this) {
+        result = decoded;
+        if (result == null) {
+          try {
+            result = NbtHelper.decodeFromBytes(encoded);
+          } catch (IOException e) {
+            throw new UncheckedIOException("Lazy compound could not be decoded", e);
+          }
+
+          if (isImmutable) {
+            // Nothing else has a reference to it, so there's
+            // no need to copy it.
+            result = NbtHelper.adoptAsImmutable(result);
+          } else {
+            encoded = null;
+          }
+          decoded = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public int size() {
+    return decoded().size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    // An empty compound encodes to either no bytes or a
+    // single TAG_End, so no need to decode it.
+    ByteString bytes = encoded;
+    if (bytes != null && decoded == null) {
+      return bytes.isEmpty() || (bytes.size() == 1 && bytes.byteAt(0) == 0);
+    }
+    return decoded().isEmpty();
+  }
+
+  @Override
+  public Object get(Object name) {
+    return decoded().get(name);
+  }
+
+  @Override
+  public Object getOrDefault(Object name, Object defaultValue) {
+    return decoded().getOrDefault(name, defaultValue);
+  }
+
+  @Override
+  public boolean containsKey(Object name) {
+    return decoded().containsKey(name);
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    return decoded().containsValue(value);
+  }
+
+  @Override
+  public Object put(String name, Object value) {
+    return decoded().put(name, value);
+  }
+
+  @Override
+  public void putAll(Map<? extends String, ?> m) {
+    decoded().putAll(m);
+  }
+
+  @Override
+  public Object putIfAbsent(String name, Object value) {
+    return decoded().putIfAbsent(name, value);
+  }
+
+  @Override
+  public Object compute(String key,
+      BiFunction<? super String, ? super Object, ?> remappingFunction) {
+    return decoded().compute(key, remappingFunction);
+  }
+
+  @Override
+  public Object computeIfAbsent(String key, Function<? super String, ?> mappingFunction) {
+    return decoded().computeIfAbsent(key, mappingFunction);
+  }
+
+  @Override
+  public Object computeIfPresent(String key,
+      BiFunction<? super String, ? super Object, ?> remappingFunction) {
+    return decoded().computeIfPresent(key, remappingFunction);
+  }
+
+  @Override
+  public Object remove(Object name) {
+    return decoded().remove(name);
+  }
+
+  @Override
+  public boolean remove(Object name, Object value) {
+    return decoded().remove(name, value);
+  }
+
+  @Override
+  public boolean replace(String key, Object oldValue, Object newValue) {
+    return decoded().replace(key, oldValue, newValue);
+  }
+
+  @Override
+  public Object replace(String key, Object value) {
+    return decoded().replace(key, value);
+  }
+
+  @Override
+  public void replaceAll(BiFunction<? super String, ? super Object, ?> function) {
+    decoded().replaceAll(function);
+  }
+
+  @Override
+  public Object merge(String key, Object value,
+      BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+    return decoded().merge(key, value, remappingFunction);
+  }
+
+  @Override
+  public void clear() {
+    decoded().clear();
+  }
+
+  @Override
+  public void forEach(BiConsumer<? super String, ? super Object> action) {
+    decoded().forEach(action);
+  }
+
+  @Override
+  public Set<String> keySet() {
+    return decoded().keySet();
+  }
+
+  @Override
+  public Collection<Object> values() {
+    return decoded().values();
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    return decoded().entrySet();
+  }
+
+  @Override
+  public Object clone() {
+    NBTCompound copy = new NBTCompound();
+    copy.putAll(decoded());
+    return copy;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    return decoded().equals(o);
+  }
+
+  @Override
+  public int hashCode() {
+    return decoded().hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return decoded().toString();
+  }
+}
@@ -1,9 +1,14 @@
 package me.nullicorn.ooze.level.nbt;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.UnsafeByteOperations;
+import com.google.protobuf.WireFormat;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Array;
+import java.util.Arrays;
 import me.nullicorn.nedit.NBTInputStream;
 import me.nullicorn.nedit.NBTOutputStream;
 import me.nullicorn.nedit.type.NBTCompound;
@@ -16,14 +21,59 @@ import me.nullicorn.nedit.type.NBTList;
  */
 public final class NbtHelper {
 
+  /**
+   * The first byte of properties in the compact {@link #encodePropertiesToBytes(NBTCompound,
+   * boolean) string table} format. NBT-encoded compounds always start with a tag's type, which is
+   * never this value.
+   */
+  private static final byte STRING_TABLE_MARKER = (byte) 0xFE;
+
+  /**
+   * Buffers larger than this are not kept for the next call to {@link #encode(NBTCompound)
+   * encode()}, so that one large compound doesn't hold onto memory indefinitely.
+   */
+  private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+  /**
+   * Each thread's buffer for encoding compounds, which is reused between calls.
+   */
+  private static final ThreadLocal<EncodeBuffer> encodeBuffers =
+      ThreadLocal.withInitial(EncodeBuffer::new);
+
   /**
    * Copies the contents of a {@code compound} into a new compound that cannot be modified,
-   * disregarding reflection or similar methods.
+   * disregarding reflection or similar methods. Any compounds and lists inside it are made
+   * immutable too.
+   * <p><br>
+   * If the {@code compound} is already immutable, such as one returned by this method, it is
+   * returned as-is. The same goes for any immutable compounds or lists inside it, which are shared
+   * instead of copied.
    *
    * @throws IllegalArgumentException if the provided {@code compound} is {@code null}.
    */
   public static NBTCompound copyToImmutable(NBTCompound compound) {
-    return new ImmutableCompound(compound);
+    if (compound == null) {
+      throw new IllegalArgumentException("source compound cannot be null");
+    }
+    return toImmutable(compound, true);
+  }
+
+  /**
+   * Same as {@link #copyToImmutable(NBTCompound) copyToImmutable()}, except that the compound is
+   * taken over rather than copied wherever possible. Only its compounds and lists are replaced
+   * with immutable ones; everything else (including arrays) is shared.
+   * <p><br>
+   * This suits compounds that nothing else holds a reference to, such as ones that were just
+   * {@link #decodeFromBytes(ByteString) decoded}. The {@code compound}, and anything in it, must
+   * not be modified afterwards.
+   *
+   * @throws IllegalArgumentException if the provided {@code compound} is {@code null}.
+   */
+  public static NBTCompound adoptAsImmutable(NBTCompound compound) {
+    if (compound == null) {
+      throw new IllegalArgumentException("source compound cannot be null");
+    }
+    return toImmutable(compound, false);
   }
 
   /**
@@ -37,16 +87,93 @@ public final class NbtHelper {
   public static ByteString encodeToBytes(NBTCompound compound) throws IOException {
     if (compound == null) {
       throw new IllegalArgumentException("null compound cannot be converted to proto");
+    }
+
+    // Compounds that were never decoded can reuse their
+    // original bytes.
+    ByteString original = originalBytesOf(compound);
+    if (original != null) {
+      return original;
     } else if (compound.isEmpty()) {
       // Return zero bytes if the compound is empty.
       return ByteString.EMPTY;
     }
 
-    ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+    EncodeBuffer buffer = encode(compound);
+    try {
+      return ByteString.copyFrom(buffer.bytes(), 0, buffer.size());
+    } finally {
+      buffer.release();
+    }
+  }
 
-    // Serialize the contents of the compound.
-    new NBTOutputStream(bytesOut, false).writeCompound(compound);
-    return ByteString.copyFrom(bytesOut.toByteArray());
+  /**
+   * Serializes the contents of an NBT compound straight into a ProtoBuf {@code bytes} field,
+   * without first copying it into a {@link ByteString}.
+   * <p><br>
+   * The field is always written, even if the compound is empty (in which case its value has zero
+   * bytes). This suits {@code repeated} fields; callers writing a singular field should skip empty
+   * compounds, like ProtoBuf itself does.
+   *
+   * @param fieldNumber The number of the field to write the compound to.
+   * @throws IOException              if the compound could not be serialized, or if the {@code
+   *                                  output} could not be written to.
+   * @throws IllegalArgumentException if the {@code compound} or {@code output} are {@code null}.
+   * @see #encodeToBytes(NBTCompound)
+   */
+  public static void encodeToField(NBTCompound compound, int fieldNumber, CodedOutputStream output)
+      throws IOException {
+    if (compound == null) {
+      throw new IllegalArgumentException("null compound cannot be converted to proto");
+    } else if (output == null) {
+      throw new IllegalArgumentException("null output cannot be written to");
+    }
+
+    ByteString original = originalBytesOf(compound);
+    if (original != null) {
+      output.writeBytes(fieldNumber, original);
+      return;
+    }
+
+    output.writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    if (compound.isEmpty()) {
+      output.writeUInt32NoTag(0);
+      return;
+    }
+
+    EncodeBuffer buffer = encode(compound);
+    try {
+      output.writeUInt32NoTag(buffer.size());
+      output.writeRawBytes(buffer.bytes(), 0, buffer.size());
+    } finally {
+      buffer.release();
+    }
+  }
+
+  /**
+   * @return the bytes that a {@link LazyCompound} was created from, if the compound is one and it
+   * hasn't changed since. Otherwise {@code null}.
+   */
+  private static ByteString originalBytesOf(NBTCompound compound) {
+    return (compound instanceof LazyCompound)
+        ? ((LazyCompound) compound).encoded()
+        : null;
+  }
+
+  /**
+   * Serializes the contents of a non-empty compound into the current thread's {@link EncodeBuffer},
+   * which must be {@link EncodeBuffer#release() released} once its contents have been copied.
+   */
+  private static EncodeBuffer encode(NBTCompound compound) throws IOException {
+    EncodeBuffer buffer = encodeBuffers.get();
+    try {
+      buffer.nbtOut.writeCompound(compound);
+      buffer.nbtOut.flush();
+    } catch (IOException | RuntimeException e) {
+      buffer.release();
+      throw e;
+    }
+    return buffer;
   }
 
   /**
@@ -74,60 +201,246 @@ public final class NbtHelper {
   }
 
   /**
-   * Recursively copies the contents of an NBT tag. Used internally to copy tags into {@link
-   * ImmutableCompound immutable compounds}.
+   * Serializes a block state's properties, optionally using a compact format if possible.
+   * <p><br>
+   * If the string table is allowed, and every property is a string (like {@code facing=north}),
+   * they're written as a table of key-value pairs, sorted by key. That table starts with a byte
+   * that no NBT compound can start with, followed by the number of pairs, and then each key and
+   * value as a length-prefixed UTF-8 string. Otherwise, the properties are {@link
+   * #encodeToBytes(NBTCompound) NBT-encoded}.
+   * <p><br>
+   * The string table is not part of the original format, so only {@link
+   * #decodePropertiesFromBytes(ByteString) decodePropertiesFromBytes()} can read it. Readers that
+   * expect NBT, including {@link #decodeFromBytes(ByteString) decodeFromBytes()}, will fail to.
+   * <p><br>
+   * Properties that were {@link #decodeLazilyToImmutable(ByteString) lazily decoded} are written
+   * using their original bytes, which are always NBT, unless the string table is allowed and the
+   * properties can use it.
    *
-   * @param nbt The tag to copy.
-   * @param <T> The runtime class of the NBT type.
+   * @param properties     The properties to serialize.
+   * @param useStringTable Whether the compact string table format may be used.
+   * @return a string of bytes that can be read by {@link #decodePropertiesFromBytes(ByteString)
+   * decodePropertiesFromBytes()}.
+   * @throws IOException              if the properties could not be serialized.
+   * @throws IllegalArgumentException if the {@code properties} are {@code null}.
+   */
+  public static ByteString encodePropertiesToBytes(NBTCompound properties, boolean useStringTable)
+      throws IOException {
+    if (properties == null) {
+      throw new IllegalArgumentException("null properties cannot be converted to proto");
+    }
+
+    // Original bytes are only reused if they're already in
+    // the requested format. Otherwise properties loaded as
+    // NBT could never be converted to the string table.
+    ByteString original = originalBytesOf(properties);
+    if (original != null && (!useStringTable || isStringTable(original))) {
+      return original;
+    } else if (!useStringTable) {
+      return encodeToBytes(properties);
+    } else if (properties.isEmpty()) {
+      return ByteString.EMPTY;
+    }
+
+    // Fall back to NBT for anything besides strings.
+    int size = 1 + CodedOutputStream.computeUInt32SizeNoTag(properties.size());
+    for (Object value : properties.values()) {
+      if (!(value instanceof String)) {
+        return encodeToBytes(properties);
+      }
+      size += CodedOutputStream.computeStringSizeNoTag((String) value);
+    }
+
+    String[] keys = properties.keySet().toArray(new String[0]);
+    Arrays.sort(keys);
+    for (String key : keys) {
+      size += CodedOutputStream.computeStringSizeNoTag(key);
+    }
+
+    byte[] bytes = new byte[size];
+    CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+    output.writeRawByte(STRING_TABLE_MARKER);
+    output.writeUInt32NoTag(keys.length);
+    for (String key : keys) {
+      output.writeStringNoTag(key);
+      output.writeStringNoTag((String) properties.get(key));
+    }
+    output.checkNoSpaceLeft();
+
+    // Nothing else has the array, so it doesn't need to be
+    // copied.
+    return UnsafeByteOperations.unsafeWrap(bytes);
+  }
+
+  /**
+   * Builds an immutable compound from a block state's properties, in either of the formats written
+   * by {@link #encodePropertiesToBytes(NBTCompound, boolean) encodePropertiesToBytes()}.
+   * <p><br>
+   * Properties in the compact string table format are decoded right away, with each string
+   * {@link String#intern() interned}. NBT-encoded properties are {@link
+   * #decodeLazilyToImmutable(ByteString) decoded lazily}.
+   *
+   * @throws IOException              if the properties are in the string table format, but are
+   *                                  malformed.
+   * @throws IllegalArgumentException if the {@code proto} is {@code null}.
+   */
+  public static NBTCompound decodePropertiesFromBytes(ByteString proto) throws IOException {
+    if (proto == null) {
+      throw new IllegalArgumentException("null proto cannot be converted to compound");
+    } else if (!isStringTable(proto)) {
+      return decodeLazilyToImmutable(proto);
+    }
+
+    CodedInputStream input = proto.newCodedInput();
+    input.skipRawBytes(1);
+
+    // Each pair takes at least 2 bytes, which keeps a bad
+    // count from allocating a huge map.
+    int count = input.readUInt32();
+    if (count < 0 || count > (proto.size() - 1) / 2) {
+      throw new IOException("Invalid number of properties: " + count);
+    }
+
+    NBTCompound properties = new NBTCompound();
+    for (int i = 0; i < count; i++) {
+      String key = input.readStringRequireUtf8().intern();
+      String value = input.readStringRequireUtf8().intern();
+      if (properties.put(key, value) != null) {
+        throw new IOException("Duplicate property: \"" + key + "\"");
+      }
+    }
+
+    if (!input.isAtEnd()) {
+      throw new IOException("Unexpected bytes after properties");
+    }
+    return adoptAsImmutable(properties);
+  }
+
+  /**
+   * @return whether the bytes are properties in the compact {@link
+   * #encodePropertiesToBytes(NBTCompound, boolean) string table} format, rather than NBT.
+   */
+  private static boolean isStringTable(ByteString bytes) {
+    return !bytes.isEmpty() && bytes.byteAt(0) == STRING_TABLE_MARKER;
+  }
+
+  /**
+   * Same as {@link #decodeFromBytes(ByteString) decodeFromBytes()}, except the bytes are not
+   * decoded until the compound's contents are first accessed. Until then, {@link
+   * #encodeToBytes(NBTCompound) encoding} the compound simply returns the original bytes.
+   * <p><br>
+   * This suits compounds that usually aren't looked at, such as the entities in a level that's only
+   * being edited block-by-block.
+   *
+   * @return a mutable compound that decodes the bytes when first used. If the bytes are not a valid
+   * NBT compound, an {@link java.io.UncheckedIOException UncheckedIOException} is thrown at that
+   * point.
+   * @throws IllegalArgumentException if the {@code proto} is {@code null}.
+   */
+  public static NBTCompound decodeLazily(ByteString proto) {
+    return new LazyCompound(proto, false);
+  }
+
+  /**
+   * Same as {@link #decodeLazily(ByteString) decodeLazily()}, except the compound cannot be
+   * modified, like one returned by {@link #copyToImmutable(NBTCompound) copyToImmutable()}. Since
+   * it never changes, its original bytes are reused even after it's decoded.
+   *
+   * @throws IllegalArgumentException if the {@code proto} is {@code null}.
+   */
+  public static NBTCompound decodeLazilyToImmutable(ByteString proto) {
+    return new LazyCompound(proto, true);
+  }
+
+  /**
+   * Converts an NBT tag to an immutable form, recursively. Compounds and lists that are already
+   * immutable are returned as-is, so that they're shared rather than copied. Used internally to
+   * build {@link ImmutableCompound immutable compounds}.
+   *
+   * @param nbt    The tag to convert.
+   * @param isCopy Whether mutable values that can't be made immutable (arrays) should be copied.
+   *               If {@code false}, the {@code nbt} tag must not be modified afterwards.
+   * @param <T>    The runtime class of the NBT type.
    * @throws IllegalArgumentException if the {@code nbt} value is {@code null}, or if it's class has
    *                                  no corresponding NBT type.
    */
   // Suppressed so we can copy differently based on class, including arrays with an unknown type.
   @SuppressWarnings({"SuspiciousSystemArraycopy", "unchecked"})
-  static <T> T deepCopy(T nbt) {
+  static <T> T toImmutable(T nbt, boolean isCopy) {
     if (nbt == null) {
       throw new IllegalArgumentException("null tag cannot be copied");
     }
 
-    Object copy;
+    Object immutable;
 
-    if (nbt instanceof NBTCompound) {
-      NBTCompound compound = (NBTCompound) nbt;
-      NBTCompound compoundCopy = new NBTCompound();
+    if (nbt instanceof ImmutableCompound || nbt instanceof ImmutableList) {
+      // Already immutable, so it can be shared.
+      immutable = nbt;
 
-      // Perform a deep copy on each value, then add
-      // them to the new compound using the same name.
-      compound.forEach((name, value) -> compoundCopy.put(name, deepCopy(value)));
-      copy = compoundCopy;
+    } else if (nbt instanceof LazyCompound && ((LazyCompound) nbt).isImmutable()) {
+      immutable = nbt;
 
-    } else if (nbt instanceof NBTList) {
-      NBTList list = (NBTList) nbt;
-      NBTList listCopy = new NBTList(list.getContentType());
+    } else if (nbt instanceof NBTCompound) {
+      immutable = new ImmutableCompound((NBTCompound) nbt, isCopy);
 
-      // Perform a deep copy on each element, then
-      // add them to the new list at the same index.
-      list.forEach(element -> listCopy.add(deepCopy(element)));
-      copy = listCopy;
+    } else if (nbt instanceof NBTList) {
+      immutable = new ImmutableList((NBTList) nbt, isCopy);
 
     } else if (nbt instanceof byte[] || nbt instanceof int[] || nbt instanceof long[]) {
-      Class<?> arrayType = nbt.getClass();
-      int arrayLength = Array.getLength(nbt);
+      if (isCopy) {
+        Class<?> arrayType = nbt.getClass();
+        int arrayLength = Array.getLength(nbt);
 
-      // Copy the array without knowing its type.
-      copy = Array.newInstance(arrayType.getComponentType(), arrayLength);
-      System.arraycopy(nbt, 0, copy, 0, arrayLength);
+        // Copy the array without knowing its type.
+        immutable = Array.newInstance(arrayType.getComponentType(), arrayLength);
+        System.arraycopy(nbt, 0, immutable, 0, arrayLength);
+      } else {
+        immutable = nbt;
+      }
 
     } else if (nbt instanceof String || nbt instanceof Byte || nbt instanceof Short
                || nbt instanceof Integer || nbt instanceof Long || nbt instanceof Float
                || nbt instanceof Double) {
       // Already immutable, no need to copy.
-      copy = nbt;
+      immutable = nbt;
 
     } else {
       throw new IllegalArgumentException("Unable to copy NBT value: " + nbt);
     }
 
-    return (T) copy;
+    return (T) immutable;
+  }
+
+  /**
+   * A byte buffer whose contents can be read without copying them, along with an NBT stream that
+   * writes to it. Both are reused for every compound that a thread encodes.
+   */
+  private static final class EncodeBuffer extends ByteArrayOutputStream {
+
+    private final NBTOutputStream nbtOut = new NBTOutputStream(this, false);
+
+    EncodeBuffer() {
+      super(256);
+    }
+
+    /**
+     * @return the buffer's backing array. Only the first {@link #size()} bytes are used.
+     */
+    byte[] bytes() {
+      return buf;
+    }
+
+    /**
+     * Empties the buffer so it can be used for the next compound. If it grew too large, it's
+     * discarded instead.
+     */
+    void release() {
+      if (buf.length > MAX_RETAINED_BUFFER_SIZE) {
+        encodeBuffers.remove();
+      } else {
+        reset();
+      }
+    }
   }
 
   private NbtHelper() {
@@ -0,0 +1,146 @@
+package me.nullicorn.ooze.level;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.ooze.protos.BlockStateData;
+import com.github.ooze.protos.PaletteData;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import me.nullicorn.nedit.type.NBTCompound;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Nullicorn
+ */
+class BlockStateRegistryTests {
+
+  @Test
+  void intern_shouldReturnSameInstanceForEqualStates() {
+    NBTCompound properties = new NBTCompound();
+    properties.put("facing", "north");
+
+    BlockState first = new BlockState("ooze:registry_test", properties);
+    BlockState second = new BlockState("ooze:registry_test", properties);
+
+    BlockState canonical = BlockStateRegistry.intern(first);
+    assertSame(canonical, BlockStateRegistry.intern(second));
+    assertSame(canonical, second.intern());
+    assertEquals(canonical, second);
+  }
+
+  @Test
+  void intern_shouldRejectNull() {
+    assertThrows(IllegalArgumentException.class, () -> BlockStateRegistry.intern(null));
+  }
+
+  @Test
+  void idOf_shouldBeUniqueAndReversible() {
+    BlockState a = new BlockState("ooze:registry_test_a");
+    BlockState b = new BlockState("ooze:registry_test_b");
+
+    int idA = BlockStateRegistry.idOf(a);
+    int idB = BlockStateRegistry.idOf(b);
+
+    assertNotEquals(idA, idB);
+    assertEquals(idA, BlockStateRegistry.idOf(new BlockState("ooze:registry_test_a")));
+    assertSame(a.intern(), BlockStateRegistry.get(idA));
+    assertSame(b.intern(), BlockStateRegistry.get(idB));
+    assertThrows(IndexOutOfBoundsException.class,
+        () -> BlockStateRegistry.get(BlockStateRegistry.size()));
+  }
+
+  @Test
+  void idOf_shouldEmptyStateBeZero() {
+    assertEquals(0, BlockStateRegistry.idOf(BlockState.empty()));
+  }
+
+  @Test
+  void intern_shouldBeThreadSafe() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<BlockState>> results = new ArrayList<>();
+      for (int i = 0; i < 64; i++) {
+        results.add(executor.submit(() -> new BlockState("ooze:registry_test_race").intern()));
+      }
+
+      BlockState canonical = results.get(0).get();
+      for (Future<BlockState> result : results) {
+        assertSame(canonical, result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void paletteFromProto_shouldShareStates() throws IOException {
+    List<BlockState> states = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      NBTCompound properties = new NBTCompound();
+      properties.put("age", Integer.toString(i));
+      states.add(new BlockState("ooze:registry_test_crop", properties));
+    }
+    PaletteData proto = new Palette("ooze:registry_test", 2730, states).toProto();
+
+    Palette first = Palette.fromProto(proto);
+    Palette second = Palette.fromProto(proto);
+
+    for (int i = 0; i < states.size(); i++) {
+      assertSame(first.get(i), second.get(i), "i=" + i);
+      assertEquals(states.get(i).intern(), first.get(i), "i=" + i);
+    }
+  }
+
+  @Test
+  void fromProto_shouldInternStatesOnceHashed() throws IOException {
+    NBTCompound properties = new NBTCompound();
+    properties.put("facing", "east");
+    BlockState original = new BlockState("ooze:registry_test_lazy", properties);
+
+    BlockState loaded = BlockStateRegistry.fromProto(original.toProto());
+    assertEquals(BlockState.NO_ID, loaded.id);
+
+    loaded.hashCode();
+    assertSame(loaded, loaded.intern());
+    assertSame(loaded, original.intern());
+    assertEquals(BlockStateRegistry.idOf(original), BlockStateRegistry.idOf(loaded));
+  }
+
+  @Test
+  void fromProto_shouldBeThreadSafe() throws Exception {
+    BlockStateData proto = new BlockState("ooze:registry_test_proto_race").toProto();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<BlockState>> results = new ArrayList<>();
+      for (int i = 0; i < 64; i++) {
+        results.add(executor.submit(() -> BlockStateRegistry.fromProto(proto).intern()));
+      }
+
+      BlockState canonical = results.get(0).get();
+      for (Future<BlockState> result : results) {
+        assertSame(canonical, result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void fromProto_shouldOnlyCacheRecentProtos() throws IOException {
+    for (int i = 0; i < BlockStateRegistry.MAX_CACHED_PROTOS + 100; i++) {
+      BlockStateData proto = BlockStateData.newBuilder()
+          .setName("ooze:registry_test_cache_" + i)
+          .build();
+      BlockStateRegistry.fromProto(proto);
+    }
+    assertTrue(BlockStateRegistry.cachedProtoCount() <= BlockStateRegistry.MAX_CACHED_PROTOS);
+  }
+}
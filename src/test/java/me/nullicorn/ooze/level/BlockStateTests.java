@@ -2,11 +2,17 @@ package me.nullicorn.ooze.level;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.github.ooze.protos.BlockStateData;
+import com.google.protobuf.ByteString;
+import java.io.IOException;
 import me.nullicorn.nedit.type.NBTCompound;
+import me.nullicorn.ooze.level.nbt.NbtHelper;
 import nl.jqno.equalsverifier.EqualsVerifier;
 import org.junit.jupiter.api.Test;
 
@@ -15,8 +21,6 @@ import org.junit.jupiter.api.Test;
  */
 class BlockStateTests {
 
-  // TODO: 7/29/21 Add tests for proto conversion.
-
   @Test
   void constructor_shouldFailIfNameIsNull() {
     assertThrows(IllegalArgumentException.class, () -> new BlockState(null));
@@ -84,11 +88,96 @@ class BlockStateTests {
     assertTrue(BlockState.empty().isEmpty());
   }
 
+  @Test
+  void hashCode_shouldMatchForEqualStates() {
+    NBTCompound properties = new NBTCompound();
+    properties.put("facing", "east");
+    BlockState state = new BlockState("ooze:test_state", properties);
+
+    // Changing the source compound must not affect the state's hash.
+    NBTCompound sameProperties = new NBTCompound();
+    sameProperties.putAll(properties);
+    properties.put("facing", "west");
+
+    BlockState sameState = new BlockState("ooze:test_state", sameProperties);
+    assertEquals(state, sameState);
+    assertEquals(state.hashCode(), sameState.hashCode());
+    assertNotEquals(state, new BlockState("ooze:test_state", properties));
+  }
+
+  @Test
+  void toProto_shouldOnlyUseStringTableWhenAllowed() throws IOException {
+    NBTCompound properties = new NBTCompound();
+    properties.put("facing", "north");
+    properties.put("half", "bottom");
+    BlockState state = new BlockState("minecraft:oak_stairs", properties);
+
+    // NBT unless asked otherwise, so older readers can
+    // still understand it.
+    assertEquals(NbtHelper.encodeToBytes(properties), state.toProto().getProperties());
+    assertEquals(state.toProto(), state.toProto(false));
+
+    ByteString encoded = state.toProto(true).getProperties();
+    assertEquals((byte) 0xFE, encoded.byteAt(0));
+    assertTrue(encoded.size() < NbtHelper.encodeToBytes(properties).size());
+
+    BlockState decoded = BlockState.fromProto(state.toProto(true));
+    assertEquals(state, decoded);
+    assertSame("north", decoded.getProperties().get("facing"));
+    assertThrows(UnsupportedOperationException.class, decoded.getProperties()::clear);
+  }
+
+  @Test
+  void toProto_shouldUseNbtForOtherProperties() throws IOException {
+    NBTCompound properties = new NBTCompound();
+    properties.put("facing", "north");
+    properties.put("age", 3);
+    BlockState state = new BlockState("minecraft:wheat", properties);
+
+    assertEquals(NbtHelper.encodeToBytes(properties), state.toProto(true).getProperties());
+    assertEquals(state, BlockState.fromProto(state.toProto(true)));
+  }
+
+  @Test
+  void toProto_shouldReuseOriginalNbtProperties() throws IOException {
+    NBTCompound properties = new NBTCompound();
+    properties.put("facing", "north");
+    ByteString nbt = NbtHelper.encodeToBytes(properties);
+    BlockStateData proto = BlockStateData.newBuilder()
+        .setName("minecraft:furnace")
+        .setProperties(nbt)
+        .build();
+
+    // Even after being decoded, NBT properties should be
+    // written back as they were.
+    BlockState state = BlockState.fromProto(proto);
+    assertEquals(properties, state.getProperties());
+    assertEquals(nbt, state.toProto().getProperties());
+  }
+
+  @Test
+  void fromProto_shouldRejectMalformedStringTable() {
+    byte[][] malformed = {
+        {(byte) 0xFE, 5, 1, 'a'},
+        {(byte) 0xFE, 2, 1, 'a', 1, 'b', 1, 'a', 1, 'c'},
+        {(byte) 0xFE, 1, 1, 'a', 1, 'b', 0}
+    };
+    for (byte[] bytes : malformed) {
+      BlockStateData proto = BlockStateData.newBuilder()
+          .setName("ooze:test_state")
+          .setProperties(ByteString.copyFrom(bytes))
+          .build();
+      assertThrows(IOException.class, () -> BlockState.fromProto(proto));
+    }
+  }
+
   @Test
   void equals_shouldTwoStatesEqualWhenExpected() {
     EqualsVerifier
         .forClass(BlockState.class)
         .withNonnullFields("name", "properties")
+        .withCachedHashCode("hash", "computeHash", new BlockState("ooze:test_state"))
+        .withIgnoredFields("id", "canonical", "isInternedLazily")
         .verify();
   }
 }
@@ -0,0 +1,104 @@
+package me.nullicorn.ooze.level;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * @author Nullicorn
+ */
+class CellIndexTests {
+
+  @ParameterizedTest
+  @CsvSource({
+      "0, 0, 0",
+      "-1, -1, -1",
+      "8388607, 32767, 8388607",
+      "-8388608, -32768, -8388608",
+      "123, -45, -6789"
+  })
+  void pack_shouldBeReversible(int x, int y, int z) {
+    long key = CellIndex.pack(x, y, z);
+    assertEquals(x, CellIndex.unpackX(key));
+    assertEquals(y, CellIndex.unpackY(key));
+    assertEquals(z, CellIndex.unpackZ(key));
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "8388608, 0, 0",
+      "0, 32768, 0",
+      "0, 0, -8388609"
+  })
+  void pack_shouldRejectOutOfRangeCoordinates(int x, int y, int z) {
+    assertFalse(CellIndex.isInRange(x, y, z));
+    assertThrows(IllegalArgumentException.class, () -> CellIndex.pack(x, y, z));
+  }
+
+  @Test
+  void sortedKeys_shouldBeInXzyOrder() {
+    int[][] expectedOrder = {
+        {-2, 5, 9},
+        {-2, -7, 10},
+        {-2, 3, 10},
+        {0, 0, -1},
+        {0, -1, 0},
+        {0, 0, 0},
+        {4, 0, 0}
+    };
+
+    CellIndex index = new CellIndex();
+    for (int i = expectedOrder.length - 1; i >= 0; i--) {
+      int[] location = expectedOrder[i];
+      index.put(CellIndex.pack(location[0], location[1], location[2]), i);
+    }
+
+    long[] sortedKeys = index.sortedKeys();
+    assertEquals(expectedOrder.length, sortedKeys.length);
+    for (int i = 0; i < sortedKeys.length; i++) {
+      long key = sortedKeys[i];
+      assertArrayEquals(expectedOrder[i], new int[]{
+          CellIndex.unpackX(key), CellIndex.unpackY(key), CellIndex.unpackZ(key)
+      });
+      assertEquals(i, index.get(key));
+    }
+  }
+
+  @Test
+  void shouldBehaveLikeMap() {
+    Random random = new Random(1234);
+    Map<Long, Object> expected = new HashMap<>();
+    CellIndex actual = new CellIndex();
+
+    // Randomly add & remove cells in a small area, so
+    // that keys are often reused.
+    for (int i = 0; i < 100_000; i++) {
+      long key = CellIndex.pack(
+          random.nextInt(40) - 20,
+          random.nextInt(10) - 5,
+          random.nextInt(40) - 20);
+
+      if (random.nextInt(3) == 0) {
+        assertSame(expected.remove(key), actual.remove(key));
+      } else {
+        Object value = new Object();
+        assertSame(expected.put(key, value), actual.put(key, value));
+      }
+    }
+
+    assertEquals(expected.size(), actual.size());
+    expected.forEach((key, value) -> assertSame(value, actual.get(key)));
+    assertEquals(expected.size(), actual.sortedKeys().length);
+    assertNull(actual.get(CellIndex.pack(100, 100, 100)));
+  }
+}
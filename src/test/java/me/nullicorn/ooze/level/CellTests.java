@@ -0,0 +1,184 @@
+package me.nullicorn.ooze.level;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.ooze.protos.CellData;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * @author Nullicorn
+ */
+class CellTests {
+
+  @Test
+  void empty_shouldBeUniform() {
+    Cell empty = Cell.empty();
+    assertTrue(empty.isUniform());
+    assertArrayEquals(new int[4096], empty.getBlocks().toIntArray());
+    assertTrue(empty.getBlock(3, 4, 5).isEmpty());
+  }
+
+  @Test
+  void constructor_shouldRejectInvalidArgs() {
+    Palette palette = generatePalette(4);
+    assertThrows(IllegalArgumentException.class, () -> new Cell(null, new PackedUIntArray(0)));
+    assertThrows(IllegalArgumentException.class, () -> new Cell(palette, null));
+    assertThrows(IllegalArgumentException.class, () -> new Cell(palette, new PackedUIntArray(0)));
+    assertThrows(IllegalArgumentException.class, () -> Cell.uniform(palette, -1));
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {0, 1, 10, 100, 1000, 2048, 4096})
+  void getBlocks_shouldMatchOriginalArrayInAnyMode(int numberOfExceptions) {
+    Palette palette = generatePalette(40);
+    int[] expected = generateBlocks(palette, numberOfExceptions);
+    PackedUIntArray original = new PackedUIntArray(expected);
+
+    Cell cell = new Cell(palette, original);
+    assertEquals(numberOfExceptions == 0, cell.isUniform());
+
+    PackedUIntArray actual = cell.getBlocks();
+    assertEquals(original, actual);
+    assertEquals(original.toProto(), cell.toProto().getBlocks());
+
+    for (int x = 0; x < 16; x++) {
+      for (int z = 0; z < 16; z++) {
+        for (int y = 0; y < 16; y++) {
+          int index = (x << 8) | (z << 4) | y;
+          assertEquals(palette.get(expected[index]), cell.getBlock(x, y, z), "i=" + index);
+        }
+      }
+    }
+  }
+
+  @Test
+  void constructor_shouldStoreMostlyUniformCellsSparsely() {
+    Palette palette = generatePalette(40);
+
+    Cell sparse = new Cell(palette, new PackedUIntArray(generateBlocks(palette, 10)));
+    assertTrue(sparse.isSparse());
+
+    Cell dense = new Cell(palette, new PackedUIntArray(generateBlocks(palette, 4000)));
+    assertFalse(dense.isSparse());
+    assertFalse(dense.isUniform());
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {0, 10, 4000})
+  void toProto_shouldReuseLoadedBytesInAnyMode(int numberOfExceptions) {
+    Palette palette = generatePalette(40);
+    int[] blocks = generateBlocks(palette, numberOfExceptions);
+    CellData proto = new Cell(palette, new PackedUIntArray(blocks)).toProto();
+
+    Cell cell = Cell.fromProto(proto, Collections.singletonMap(palette.getName(), palette));
+    assertSame(proto.getBlocks().getContents(), cell.toProto().getBlocks().getContents());
+  }
+
+  @Test
+  void uniform_shouldRoundTripThroughProto() {
+    Palette palette = generatePalette(40);
+    Cell cell = Cell.uniform(palette, 37);
+    assertTrue(cell.isUniform());
+
+    CellData proto = cell.toProto();
+    Cell decoded = Cell.fromProto(proto, Collections.singletonMap(palette.getName(), palette));
+
+    assertTrue(decoded.isUniform());
+    assertEquals(palette.get(37), decoded.getBlock(15, 15, 15));
+    assertEquals(cell.getBlocks(), decoded.getBlocks());
+  }
+
+  @Test
+  void isolatedCopy_shouldKeepBlocksInAnyMode() {
+    Palette palette = generatePalette(40);
+    for (int numberOfExceptions : new int[]{0, 10, 4000}) {
+      int[] blocks = generateBlocks(palette, numberOfExceptions);
+      Cell cell = new Cell(palette, new PackedUIntArray(blocks));
+      Cell copy = cell.isolatedCopy();
+
+      for (int i = 0; i < 4096; i++) {
+        int x = i >> 8, z = (i >> 4) & 15, y = i & 15;
+        assertEquals(cell.getBlock(x, y, z), copy.getBlock(x, y, z), "i=" + i);
+      }
+    }
+  }
+
+  @Test
+  void isolatedCopy_shouldOnlyKeepUsedStatesOfLargePalettes() {
+    Palette palette = generatePalette(100_000);
+    int[] blocks = generateBlocks(palette, 10);
+    Cell cell = new Cell(palette, new PackedUIntArray(blocks));
+    Cell copy = cell.isolatedCopy();
+
+    assertTrue(copy.getPalette().size() <= 11);
+    for (int i = 0; i < 4096; i++) {
+      int x = i >> 8, z = (i >> 4) & 15, y = i & 15;
+      assertEquals(cell.getBlock(x, y, z), copy.getBlock(x, y, z), "i=" + i);
+    }
+  }
+
+  @Test
+  void equals_shouldCompareContents() {
+    Palette palette = generatePalette(40);
+    for (int numberOfExceptions : new int[]{0, 10, 4000}) {
+      int[] blocks = generateBlocks(palette, numberOfExceptions);
+      Cell cell = new Cell(palette, new PackedUIntArray(blocks));
+      Cell same = new Cell(generatePalette(40), new PackedUIntArray(blocks.clone()));
+
+      assertEquals(cell, same);
+      assertEquals(cell.hashCode(), same.hashCode());
+
+      blocks[1234] = (blocks[1234] + 1) % palette.size();
+      assertNotEquals(cell, new Cell(palette, new PackedUIntArray(blocks)));
+    }
+
+    // Uniform cells are equal however they were created.
+    MutablePackedUIntArray uniformBlocks = new MutablePackedUIntArray(4096);
+    uniformBlocks.fill(0, 4096, 3);
+    assertEquals(Cell.uniform(palette, 3), new Cell(palette, uniformBlocks.toImmutable()));
+    assertNotEquals(Cell.uniform(palette, 3), Cell.uniform(generatePalette(41), 3));
+  }
+
+  /**
+   * Generates a block array where every block uses the palette's last state, except for a number of
+   * blocks at random positions, which use other random states.
+   */
+  private static int[] generateBlocks(Palette palette, int numberOfExceptions) {
+    Random random = new Random(numberOfExceptions);
+    int background = palette.size() - 1;
+
+    List<Integer> positions = new ArrayList<>(4096);
+    for (int i = 0; i < 4096; i++) {
+      positions.add(i);
+    }
+    Collections.shuffle(positions, random);
+
+    int[] blocks = new int[4096];
+    Arrays.fill(blocks, background);
+    for (int i = 0; i < numberOfExceptions; i++) {
+      blocks[positions.get(i)] = random.nextInt(background);
+    }
+    return blocks;
+  }
+
+  private static Palette generatePalette(int numberOfStates) {
+    List<BlockState> states = new ArrayList<>(numberOfStates);
+    for (int i = 0; i < numberOfStates; i++) {
+      states.add(new BlockState("ooze:cell_test_" + i));
+    }
+    return new Palette("ooze:cell_test", 2730, states);
+  }
+}
@@ -0,0 +1,145 @@
+package me.nullicorn.ooze.level;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.github.ooze.protos.LevelData;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import me.nullicorn.ooze.level.Level.CellLoading;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author Nullicorn
+ */
+class LevelFileTests {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void write_shouldRejectNulls() {
+    Path path = directory.resolve("level.ooze");
+    assertThrows(IllegalArgumentException.class, () -> LevelFile.write(null, path));
+    assertThrows(IllegalArgumentException.class, () -> LevelFile.write(new Level(), null));
+    assertThrows(IllegalArgumentException.class, () -> LevelFile.open(null));
+  }
+
+  @Test
+  void open_shouldRejectOtherFiles() throws IOException {
+    Path path = directory.resolve("level.ooze");
+    Files.write(path, LevelTests.generateLevel().toProto().toByteArray());
+
+    assertThrows(IOException.class, () -> LevelFile.open(path));
+  }
+
+  @Test
+  void getCell_shouldReturnNullForEmptyLevel() throws IOException {
+    Path path = directory.resolve("level.ooze");
+    LevelFile.write(new Level(), path);
+
+    try (LevelFile file = LevelFile.open(path)) {
+      assertEquals(0, file.getCellCount());
+      assertNull(file.getCell(0, 0, 0));
+    }
+  }
+
+  @Test
+  void getCell_shouldMatchLevel() throws IOException {
+    Level level = LevelTests.generateLevel();
+    Path path = directory.resolve("level.ooze");
+    LevelFile.write(level, path);
+
+    try (LevelFile file = LevelFile.open(path)) {
+      assertEquals(level.toProto().getCellsCount(), file.getCellCount());
+      assertCellsMatch(level, file);
+
+      // Far outside the level, and outside what CellIndex
+      // supports.
+      assertNull(file.getCell(1000, 0, 0));
+      assertNull(file.getCell(Integer.MAX_VALUE, 0, 0));
+    }
+  }
+
+  @Test
+  void getCell_shouldMatchLazyLevel() throws IOException {
+    Level level = LevelTests.generateLevel();
+    Level lazyLevel = Level.fromProto(level.toProto(), CellLoading.LAZY);
+    Path path = directory.resolve("level.ooze");
+    LevelFile.write(lazyLevel, path);
+
+    try (LevelFile file = LevelFile.open(path)) {
+      assertCellsMatch(level, file);
+    }
+  }
+
+  @Test
+  void write_shouldStoreDuplicateCellsOnce() throws IOException {
+    Level level = new Level();
+    Cell cell = LevelTests.generateLevel().getCell(-3, 0, 2);
+    for (int x = 0; x < 16; x++) {
+      level.setCell(x, 0, 0, cell);
+    }
+
+    Path uniquePath = directory.resolve("unique.ooze");
+    Path duplicatePath = directory.resolve("duplicate.ooze");
+    Level unique = new Level();
+    unique.setCell(0, 0, 0, cell);
+    LevelFile.write(unique, uniquePath);
+    LevelFile.write(level, duplicatePath);
+
+    // Only the index should grow.
+    long extraIndexSize = 15L * LevelFile.INDEX_ENTRY_SIZE;
+    assertEquals(Files.size(uniquePath) + extraIndexSize, Files.size(duplicatePath));
+    try (LevelFile file = LevelFile.open(duplicatePath)) {
+      assertCellsMatch(level, file);
+    }
+  }
+
+  @Test
+  void forEachCellIn_shouldVisitOnlyCellsInBox() throws IOException {
+    Level level = LevelTests.generateLevel();
+    Path path = directory.resolve("level.ooze");
+    LevelFile.write(level, path);
+
+    int[] visitCount = {0};
+    try (LevelFile file = LevelFile.open(path)) {
+      file.forEachCellIn(-1, 0, 2, 2, 1, 5, (x, y, z, cell) -> {
+        assertEquals(level.getCell(x, y, z), cell);
+        visitCount[0]++;
+      });
+    }
+
+    int expectedCount = 0;
+    for (int x = -1; x <= 2; x++) {
+      for (int y = 0; y <= 1; y++) {
+        for (int z = 2; z <= 5; z++) {
+          if (level.getCell(x, y, z) != null) {
+            expectedCount++;
+          }
+        }
+      }
+    }
+    assertEquals(expectedCount, visitCount[0]);
+  }
+
+  @Test
+  void getCell_shouldFailWhenClosed() throws IOException {
+    Path path = directory.resolve("level.ooze");
+    LevelFile.write(LevelTests.generateLevel(), path);
+
+    LevelFile file = LevelFile.open(path);
+    file.close();
+    assertThrows(IllegalStateException.class, () -> file.getCell(0, 0, 0));
+  }
+
+  private static void assertCellsMatch(Level level, LevelFile file) throws IOException {
+    LevelData proto = level.toProto();
+    LevelReader.read(new ByteArrayInputStream(proto.toByteArray()),
+        (x, y, z, cell) -> assertEquals(cell, file.getCell(x, y, z)));
+  }
+}
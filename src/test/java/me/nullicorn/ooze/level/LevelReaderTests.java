@@ -0,0 +1,111 @@
+package me.nullicorn.ooze.level;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.ooze.protos.LevelData;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import me.nullicorn.ooze.level.LevelReader.CellVisitor;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Nullicorn
+ */
+class LevelReaderTests {
+
+  @Test
+  void read_shouldRejectNulls() {
+    CellVisitor visitor = (x, y, z, cell) -> {
+    };
+    assertThrows(IllegalArgumentException.class,
+        () -> LevelReader.read((InputStream) null, visitor));
+    assertThrows(IllegalArgumentException.class,
+        () -> LevelReader.read((ReadableByteChannel) null, visitor));
+    assertThrows(IllegalArgumentException.class,
+        () -> LevelReader.read(new ByteArrayInputStream(new byte[0]), null));
+  }
+
+  @Test
+  void read_shouldVisitNothingForEmptyLevel() throws IOException {
+    List<Cell> visited = new ArrayList<>();
+    byte[] bytes = new Level().toProto().toByteArray();
+    LevelReader.read(new ByteArrayInputStream(bytes), (x, y, z, cell) -> visited.add(cell));
+
+    assertTrue(visited.isEmpty());
+  }
+
+  @Test
+  void read_shouldVisitEveryCellWrittenByLevelWriter() throws IOException {
+    Level level = LevelTests.generateLevel();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LevelWriter.write(level, out);
+
+    assertVisitsEveryCell(level, new ByteArrayInputStream(out.toByteArray()));
+  }
+
+  @Test
+  void read_shouldVisitEveryCellWhenPalettesComeLast() throws IOException {
+    // ProtoBuf's own serialization puts palettes after
+    // cells, so every cell has to wait until the end.
+    Level level = LevelTests.generateLevel();
+    byte[] bytes = level.toProto().toByteArray();
+
+    assertVisitsEveryCell(level, new ByteArrayInputStream(bytes));
+  }
+
+  @Test
+  void read_shouldSupportChannels() throws IOException {
+    Level level = LevelTests.generateLevel();
+    byte[] bytes = level.toProto().toByteArray();
+
+    assertVisitsEveryCell(level, Channels.newInputStream(
+        Channels.newChannel(new ByteArrayInputStream(bytes))));
+  }
+
+  @Test
+  void read_shouldRejectPopulationMismatch() throws IOException {
+    LevelData proto = LevelTests.generateLevel().toProto();
+    byte[] missingCell = proto.toBuilder().removeCells(0).build().toByteArray();
+    byte[] extraCell = proto.toBuilder().addCells(proto.getCells(0)).build().toByteArray();
+
+    CellVisitor visitor = (x, y, z, cell) -> {
+    };
+    assertThrows(IllegalArgumentException.class,
+        () -> LevelReader.read(new ByteArrayInputStream(missingCell), visitor));
+    assertThrows(IllegalArgumentException.class,
+        () -> LevelReader.read(new ByteArrayInputStream(extraCell), visitor));
+  }
+
+  @Test
+  void read_shouldRethrowVisitorExceptions() throws IOException {
+    Level level = LevelTests.generateLevel();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LevelWriter.write(level, out);
+
+    IOException thrown = new IOException("stop");
+    IOException caught = assertThrows(IOException.class, () -> LevelReader.read(
+        new ByteArrayInputStream(out.toByteArray()),
+        (x, y, z, cell) -> {
+          throw thrown;
+        }));
+    assertEquals(thrown, caught);
+  }
+
+  private static void assertVisitsEveryCell(Level level, InputStream in) throws IOException {
+    int[] visitCount = {0};
+    LevelReader.read(in, (x, y, z, cell) -> {
+      assertEquals(level.getCell(x, y, z), cell);
+      visitCount[0]++;
+    });
+
+    assertEquals(level.toProto().getCellsCount(), visitCount[0]);
+  }
+}
@@ -0,0 +1,548 @@
+package me.nullicorn.ooze.level;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.github.ooze.protos.CellData;
+import com.github.ooze.protos.LevelData;
+import com.github.ooze.protos.PaletteData;
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import me.nullicorn.nedit.type.NBTCompound;
+import me.nullicorn.nedit.type.NBTList;
+import me.nullicorn.ooze.level.Level.CellLoading;
+import me.nullicorn.ooze.level.nbt.NbtHelper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * @author Nullicorn
+ */
+class LevelTests {
+
+  @Test
+  void fromProto_shouldRejectNulls() {
+    assertThrows(IllegalArgumentException.class, () -> Level.fromProto(null));
+    assertThrows(IllegalArgumentException.class,
+        () -> Level.fromProto(LevelData.getDefaultInstance(), (Executor) null));
+    assertThrows(IllegalArgumentException.class,
+        () -> Level.fromProto(LevelData.getDefaultInstance(), (CellLoading) null));
+  }
+
+  @Test
+  void fromProto_shouldRoundTripEmptyLevel() throws IOException {
+    Level level = Level.fromProto(new Level().toProto());
+    assertNull(level.getCell(0, 0, 0));
+  }
+
+  @Test
+  void fromProto_shouldRoundTripCellsAndNbt() throws IOException {
+    Level expected = generateLevel();
+    Level actual = Level.fromProto(expected.toProto());
+
+    assertLevelsEqual(expected, actual);
+  }
+
+  @Test
+  void fromProto_shouldMatchAcrossExecutors() throws IOException {
+    Level expected = generateLevel();
+    LevelData proto = expected.toProto();
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      assertLevelsEqual(expected, Level.fromProto(proto, executor));
+      assertLevelsEqual(expected, Level.fromProto(proto, Runnable::run));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(CellLoading.class)
+  void fromProto_shouldMatchAcrossCellLoadingStrategies(CellLoading cellLoading)
+      throws IOException {
+    Level expected = generateLevel();
+    assertLevelsEqual(expected, Level.fromProto(expected.toProto(), cellLoading));
+  }
+
+  @Test
+  void toProto_shouldMatchAcrossExecutors() throws IOException {
+    Level level = generateLevel();
+    for (int i = 0; i < 100; i++) {
+      NBTCompound entity = new NBTCompound();
+      entity.put("id", "minecraft:cow");
+      entity.put("index", i);
+      level.getEntities().add(entity);
+    }
+
+    byte[] expected = level.toProto().toByteArray();
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      for (int i = 0; i < 5; i++) {
+        assertArrayEquals(expected, level.toProto(executor).toByteArray());
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertThrows(IllegalArgumentException.class, () -> level.toProto(null));
+  }
+
+  @Test
+  void toProto_shouldReuseUndecodedCells() throws IOException {
+    LevelData expected = generateLevel().toProto();
+    Level level = Level.fromProto(expected, CellLoading.LAZY);
+
+    // Decode one cell, and replace another. Only the
+    // replaced one should need to be re-encoded.
+    level.getCell(5, -1, 7);
+    level.setCell(-3, 0, 2, level.getCell(-3, 0, 2));
+
+    LevelData actual = level.toProto();
+    assertEquals(expected, actual);
+
+    int reusedCells = 0;
+    for (int i = 0; i < expected.getCellsCount(); i++) {
+      if (expected.getCells(i) == actual.getCells(i)) {
+        reusedCells++;
+      }
+    }
+    assertEquals(expected.getCellsCount() - 1, reusedCells);
+  }
+
+  @Test
+  void fromProto_shouldSharePalettesBetweenCells() throws IOException {
+    Level level = Level.fromProto(generateLevel().toProto());
+    assertSame(level.getCell(-3, 0, 2).getPalette(), level.getCell(5, -1, 7).getPalette());
+  }
+
+  @Test
+  void fromProto_shouldRejectMismatchedPopulation() throws IOException {
+    LevelData proto = generateLevel().toProto().toBuilder()
+        .removeCells(0)
+        .build();
+
+    assertThrows(IllegalArgumentException.class, () -> Level.fromProto(proto));
+  }
+
+  @Test
+  void getBlock_shouldReturnNullOutsideCells() {
+    Level level = new Level();
+    level.setCell(0, 0, 0, Cell.empty());
+
+    assertSame(BlockState.empty(), level.getBlock(15, 15, 15));
+    assertNull(level.getBlock(16, 0, 0));
+    assertNull(level.getBlock(0, -1, 0));
+    assertNull(level.getBlock(Integer.MIN_VALUE, 0, 0));
+  }
+
+  @Test
+  void getBlock_shouldSeeChangedCells() {
+    Level level = new Level();
+    level.setCell(0, 0, 0, Cell.empty());
+    assertSame(BlockState.empty(), level.getBlock(1, 2, 3));
+
+    // The cursor should notice that the cell changed.
+    Palette palette = generatePalette("test_stone", 2);
+    level.setCell(0, 0, 0, new Cell(palette, new PackedUIntArray(new int[4096])));
+    assertEquals(palette.get(0), level.getBlock(1, 2, 3));
+
+    level.clearCell(0, 0, 0);
+    assertNull(level.getBlock(1, 2, 3));
+  }
+
+  @Test
+  void setBlock_shouldChangeOnlyThatBlock() {
+    Random random = new Random(7);
+    List<BlockState> states = generateStates("test_wood", 40);
+
+    Level level = new Level();
+    BlockState[][][] expected = new BlockState[40][40][40];
+    for (int i = 0; i < 5000; i++) {
+      int x = random.nextInt(40);
+      int y = random.nextInt(40);
+      int z = random.nextInt(40);
+      BlockState state = states.get(random.nextInt(states.size()));
+
+      level.setBlock(x - 20, y - 20, z - 20, state);
+      expected[x][y][z] = state;
+    }
+
+    for (int x = 0; x < 40; x++) {
+      for (int y = 0; y < 40; y++) {
+        for (int z = 0; z < 40; z++) {
+          BlockState actual = level.getBlock(x - 20, y - 20, z - 20);
+          if (expected[x][y][z] != null) {
+            assertEquals(expected[x][y][z], actual);
+          } else if (actual != null) {
+            assertSame(BlockState.empty(), actual);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  void setBlock_shouldGiveNewPalettesUniqueNames() throws IOException {
+    List<BlockState> states = generateStates("test_wood", 2);
+    Level level = new Level();
+    Palette taken = new Palette("ooze:edited_0", 42, states.subList(0, 1));
+    level.setCell(2, 0, 0, Cell.uniform(taken, 0));
+
+    Palette original = new Palette("test_original", 42, states.subList(0, 1));
+    level.setCell(0, 0, 0, Cell.uniform(original, 0));
+    level.setBlock(0, 0, 0, states.get(1));
+    level.setCell(1, 0, 0, level.getCell(0, 0, 0));
+
+    // Another palette of the same size as the original.
+    Palette other = new Palette("test_other", 42, states.subList(1, 2));
+    level.setCell(0, 0, 0, Cell.uniform(other, 0));
+    level.setBlock(0, 0, 0, states.get(0));
+
+    Set<String> names = new HashSet<>();
+    for (int x = 0; x <= 2; x++) {
+      names.add(level.getCell(x, 0, 0).getPalette().getName());
+    }
+    assertEquals(3, names.size());
+    assertLevelsEqual(level, Level.fromProto(level.toProto()));
+  }
+
+  @Test
+  void setBlock_shouldShareNewPalettesBetweenCells() throws IOException {
+    List<BlockState> states = generateStates("test_stone", 2);
+    Palette original = new Palette("test_original", 42, states.subList(0, 1));
+    Level level = new Level();
+    for (int x = 0; x < 10; x++) {
+      level.setCell(x, 0, 0, Cell.uniform(original, 0));
+      level.setBlock(x << 4, 0, 0, states.get(1));
+    }
+
+    // Every cell gained the same state, so they can all
+    // use the same palette, and are equal again.
+    Cell first = level.getCell(0, 0, 0);
+    assertEquals(2, first.getPalette().size());
+    for (int x = 1; x < 10; x++) {
+      assertSame(first.getPalette(), level.getCell(x, 0, 0).getPalette());
+      assertEquals(first, level.getCell(x, 0, 0));
+    }
+    assertEquals(1, level.toProto().getPalettesCount());
+  }
+
+  @Test
+  void setBlock_shouldNotChangeRetrievedCells() {
+    List<BlockState> states = generateStates("test_wood", 2);
+    Level level = new Level();
+    level.setBlock(0, 0, 0, states.get(0));
+    Cell before = level.getCell(0, 0, 0);
+
+    level.setBlock(0, 0, 0, states.get(1));
+    level.setBlock(1, 0, 0, states.get(1));
+    assertEquals(states.get(0), before.getBlock(0, 0, 0));
+    assertSame(BlockState.empty(), before.getBlock(1, 0, 0));
+    assertEquals(states.get(1), level.getCell(0, 0, 0).getBlock(0, 0, 0));
+    assertEquals(states.get(1), level.getCell(0, 0, 0).getBlock(1, 0, 0));
+  }
+
+  @Test
+  void getCell_shouldReturnSameCopyUntilEditedAgain() {
+    List<BlockState> states = generateStates("test_wood", 2);
+    Level level = new Level();
+    level.setBlock(0, 0, 0, states.get(0));
+
+    Cell copy = level.getCell(0, 0, 0);
+    assertSame(copy, level.getCell(0, 0, 0));
+
+    level.setBlock(0, 0, 0, states.get(1));
+    assertNotSame(copy, level.getCell(0, 0, 0));
+    assertEquals(states.get(0), copy.getBlock(0, 0, 0));
+  }
+
+  @Test
+  void setDeduplicatingCells_shouldShareIdenticalCells() throws IOException {
+    Level level = generateLevel();
+    Cell original = level.getCell(-3, 0, 2);
+    Cell duplicate = new Cell(original.getPalette(), original.getBlocks());
+    level.setCell(0, 5, 0, duplicate);
+    assertNotSame(original, level.getCell(0, 5, 0));
+
+    // Existing cells are deduplicated when enabled...
+    level.setDeduplicatingCells(true);
+    assertSame(level.getCell(-3, 0, 2), level.getCell(0, 5, 0));
+    assertSame(level.getCell(-3, 0, 2), level.getCell(5, -1, 7));
+
+    // ...and new ones when they're set.
+    level.setCell(1, 5, 0, new Cell(original.getPalette(), original.getBlocks()));
+    assertSame(level.getCell(-3, 0, 2), level.getCell(1, 5, 0));
+
+    // Shared cells are only encoded once; the 4 copies
+    // should all use the same proto instance.
+    LevelData proto = level.toProto();
+    Set<CellData> distinctProtos = Collections.newSetFromMap(new IdentityHashMap<>());
+    distinctProtos.addAll(proto.getCellsList());
+    assertEquals(proto.getCellsCount() - 3, distinctProtos.size());
+
+    assertLevelsEqual(level, Level.fromProto(proto));
+  }
+
+  @Test
+  void toProto_shouldReuseUndecodedEntities() throws IOException {
+    LevelData original = generateLevel().toProto();
+    Level level = Level.fromProto(original);
+    LevelData proto = level.toProto();
+    assertSame(original.getEntities(0), proto.getEntities(0));
+    assertSame(original.getBlockEntities(0), proto.getBlockEntities(0));
+
+    // Entities that might've changed should be encoded again.
+    ((NBTCompound) level.getEntities().get(0)).put("id", "minecraft:cow");
+    NBTCompound changed = NbtHelper.decodeFromBytes(level.toProto().getEntities(0));
+    assertEquals("minecraft:cow", changed.get("id"));
+  }
+
+  @Test
+  void fromProto_shouldNotDecodeStateProperties() throws IOException {
+    // Not valid NBT, so decoding would fail.
+    ByteString malformed = ByteString.copyFrom(new byte[]{99});
+    LevelData original = generateLevel().toProto();
+    PaletteData palette = original.getPalettes(0);
+    LevelData proto = original.toBuilder()
+        .setPalettes(0, palette.toBuilder()
+            .setStates(1, palette.getStates(1).toBuilder().setProperties(malformed)))
+        .build();
+
+    for (CellLoading cellLoading : CellLoading.values()) {
+      Level level = Level.fromProto(proto, cellLoading);
+      assertEquals(proto, level.toProto(), cellLoading.toString());
+    }
+  }
+
+  @Test
+  void setCompactingProperties_shouldOnlyAffectPalettes() throws IOException {
+    NBTCompound properties = new NBTCompound();
+    properties.put("facing", "north");
+    BlockState stairs = new BlockState("test_stairs", properties);
+
+    Level level = generateLevel();
+    level.setCell(6, 2, 8, Cell.uniform(new Palette("test_stairs", 42,
+        Collections.singletonList(stairs)), 0));
+    level.setSavingIncrementally(true);
+    LevelData nbt = level.toProto();
+
+    level.setCompactingProperties(true);
+    LevelData compact = level.toProto();
+    assertNotEquals(nbt.getPalettesList(), compact.getPalettesList());
+    assertEquals(nbt.getCellsList(), compact.getCellsList());
+    assertLevelsEqual(level, Level.fromProto(compact));
+
+    level.setCompactingProperties(false);
+    assertEquals(nbt, level.toProto());
+  }
+
+  @Test
+  void setCompactingProperties_shouldConvertLoadedLevels() throws IOException {
+    NBTCompound properties = new NBTCompound();
+    properties.put("facing", "north");
+    BlockState stairs = new BlockState("test_stairs", properties);
+
+    Level original = generateLevel();
+    original.setCell(6, 2, 8, Cell.uniform(new Palette("test_stairs", 42,
+        Collections.singletonList(stairs)), 0));
+    LevelData nbt = original.toProto();
+
+    // Loaded properties keep their NBT bytes, but those
+    // shouldn't be reused once compacting is enabled.
+    Level level = Level.fromProto(nbt);
+    level.setCompactingProperties(true);
+    LevelData compact = level.toProto();
+
+    for (int i = 0; i < compact.getPalettesCount(); i++) {
+      PaletteData palette = compact.getPalettes(i);
+      ByteString encoded = palette.getStates(0).getProperties();
+      if (palette.getName().equals("test_stairs")) {
+        assertEquals((byte) 0xFE, encoded.byteAt(0));
+      } else {
+        // Non-string properties are still NBT.
+        assertEquals(nbt.getPalettes(i), palette);
+      }
+    }
+    assertLevelsEqual(original, Level.fromProto(compact));
+  }
+
+  @Test
+  void setSavingIncrementally_shouldReuseUnchangedData() throws IOException {
+    Level level = generateLevel();
+    level.setSavingIncrementally(true);
+    LevelData first = level.toProto();
+    assertEquals(generateLevel().toProto(), first);
+
+    // Nothing changed, so everything should be reused.
+    LevelData second = level.toProto();
+    assertEquals(first, second);
+    for (int i = 0; i < first.getCellsCount(); i++) {
+      assertSame(first.getCells(i), second.getCells(i));
+    }
+    assertSame(first.getPalettes(0), second.getPalettes(0));
+
+    // Only the changed cell should be encoded again.
+    level.setBlock(-48, 0, 32, level.getBlock(-47, 0, 32));
+    LevelData third = level.toProto();
+    int changedCount = 0;
+    for (int i = 0; i < first.getCellsCount(); i++) {
+      if (first.getCells(i) != third.getCells(i)) {
+        changedCount++;
+      }
+    }
+    assertEquals(1, changedCount);
+    assertEquals(toProtoWithoutCache(level), third);
+  }
+
+  @Test
+  void setSavingIncrementally_shouldEncodeNbtAgainAfterGetter() throws IOException {
+    Level level = generateLevel();
+    level.setSavingIncrementally(true);
+    level.toProto();
+
+    level.getMetadata().put("name", "renamed_level");
+    NBTCompound entity = new NBTCompound();
+    entity.put("id", "minecraft:cow");
+    level.getEntities().add(entity);
+    level.getBlockEntities().clear();
+
+    assertEquals(toProtoWithoutCache(level), level.toProto());
+  }
+
+  @Test
+  void setSavingIncrementally_shouldEncodeNbtAgainWhenChangedThroughOldReference()
+      throws IOException {
+    Level level = generateLevel();
+    level.setSavingIncrementally(true);
+    NBTCompound metadata = level.getMetadata();
+    NBTList entities = level.getEntities();
+    NBTCompound entity = (NBTCompound) entities.get(0);
+    level.toProto();
+
+    // Neither getter is called again before the next save.
+    metadata.put("name", "renamed_level");
+    entity.put("id", "minecraft:cow");
+    LevelData second = level.toProto();
+    assertEquals("renamed_level", NbtHelper.decodeFromBytes(second.getMetadata()).get("name"));
+    assertEquals("minecraft:cow", NbtHelper.decodeFromBytes(second.getEntities(0)).get("id"));
+
+    entities.clear();
+    assertEquals(0, level.toProto().getEntitiesCount());
+  }
+
+  /**
+   * @return the level's proto, encoded from scratch.
+   */
+  private static LevelData toProtoWithoutCache(Level level) throws IOException {
+    level.setSavingIncrementally(false);
+    LevelData proto = level.toProto();
+    level.setSavingIncrementally(true);
+    return proto;
+  }
+
+  /**
+   * Checks that both levels have the same NBT data, and the same cells at the same coordinates.
+   * Only coordinates used by {@link #generateLevel()} are checked.
+   */
+  private static void assertLevelsEqual(Level expected, Level actual) {
+    assertEquals(expected.getMetadata(), actual.getMetadata());
+    assertEquals(expected.getEntities(), actual.getEntities());
+    assertEquals(expected.getBlockEntities(), actual.getBlockEntities());
+
+    for (int x = -4; x <= 6; x++) {
+      for (int y = -2; y <= 2; y++) {
+        for (int z = -1; z <= 8; z++) {
+          Cell expectedCell = expected.getCell(x, y, z);
+          Cell actualCell = actual.getCell(x, y, z);
+          if (expectedCell == null) {
+            assertNull(actualCell);
+            continue;
+          }
+
+          String location = x + ", " + y + ", " + z;
+          assertEquals(expectedCell.getPalette(), actualCell.getPalette(), location);
+          assertArrayEquals(
+              expectedCell.getBlocks().toIntArray(),
+              actualCell.getBlocks().toIntArray(),
+              location);
+        }
+      }
+    }
+  }
+
+  /**
+   * Generates a sparse level with a few hundred cells in negative and positive coordinates, using
+   * two different palettes.
+   */
+  static Level generateLevel() {
+    Random random = new Random(42);
+    Palette stonePalette = generatePalette("test_stone", 5);
+    Palette woodPalette = generatePalette("test_wood", 17);
+
+    Level level = new Level();
+    level.getMetadata().put("name", "test_level");
+
+    NBTCompound entity = new NBTCompound();
+    entity.put("id", "minecraft:pig");
+    level.getEntities().add(entity);
+
+    NBTCompound blockEntity = new NBTCompound();
+    blockEntity.put("id", "minecraft:chest");
+    level.getBlockEntities().add(blockEntity);
+
+    for (int x = -3; x <= 5; x++) {
+      for (int y = -1; y <= 1; y++) {
+        for (int z = 0; z <= 7; z++) {
+          if (random.nextInt(4) == 0) {
+            continue;
+          }
+
+          Palette palette = random.nextBoolean() ? stonePalette : woodPalette;
+          int[] blocks = new int[4096];
+          for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = random.nextInt(palette.size());
+          }
+          level.setCell(x, y, z, new Cell(palette, new PackedUIntArray(blocks)));
+        }
+      }
+    }
+
+    // Make sure these exist for tests that need them.
+    level.setCell(-3, 0, 2, new Cell(stonePalette, new PackedUIntArray(new int[4096])));
+    level.setCell(5, -1, 7, new Cell(stonePalette, new PackedUIntArray(new int[4096])));
+
+    return level;
+  }
+
+  private static Palette generatePalette(String name, int numberOfStates) {
+    return new Palette(name, 42, generateStates(name, numberOfStates));
+  }
+
+  private static List<BlockState> generateStates(String name, int numberOfStates) {
+    List<BlockState> states = new ArrayList<>(numberOfStates);
+    for (int i = 0; i < numberOfStates; i++) {
+      NBTCompound properties = new NBTCompound();
+      properties.put("variant", i);
+      states.add(new BlockState(name + "_state", properties));
+    }
+    return states;
+  }
+}
@@ -0,0 +1,64 @@
+package me.nullicorn.ooze.level;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.github.ooze.protos.LevelData;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import me.nullicorn.ooze.level.Level.CellLoading;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Nullicorn
+ */
+class LevelWriterTests {
+
+  @Test
+  void write_shouldRejectNulls() {
+    assertThrows(IllegalArgumentException.class,
+        () -> LevelWriter.write(null, new ByteArrayOutputStream()));
+    assertThrows(IllegalArgumentException.class,
+        () -> LevelWriter.write(new Level(), (ByteArrayOutputStream) null));
+    assertThrows(IllegalArgumentException.class,
+        () -> LevelWriter.write(new Level(), (WritableByteChannel) null));
+  }
+
+  @Test
+  void write_shouldMatchToProtoForEmptyLevel() throws IOException {
+    Level level = new Level();
+    assertArrayEquals(level.toProto().toByteArray(), writeToBytes(level));
+  }
+
+  @Test
+  void write_shouldMatchToProto() throws IOException {
+    Level level = LevelTests.generateLevel();
+    LevelData expected = level.toProto();
+
+    // Fields aren't written in the same order, so only the
+    // parsed messages can be compared.
+    assertEquals(expected, LevelData.parseFrom(writeToBytes(level)));
+
+    // Lazily loaded cells should be written the same way.
+    Level lazyLevel = Level.fromProto(expected, CellLoading.LAZY);
+    assertEquals(expected, LevelData.parseFrom(writeToBytes(lazyLevel)));
+  }
+
+  @Test
+  void write_shouldSupportChannels() throws IOException {
+    Level level = LevelTests.generateLevel();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LevelWriter.write(level, Channels.newChannel(out));
+
+    assertEquals(level.toProto(), LevelData.parseFrom(out.toByteArray()));
+  }
+
+  private static byte[] writeToBytes(Level level) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LevelWriter.write(level, out);
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,119 @@
+package me.nullicorn.ooze.level;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * @author Nullicorn
+ */
+class MutablePackedUIntArrayTests {
+
+  @Test
+  void constructor_shouldRejectInvalidArgs() {
+    assertThrows(NegativeArraySizeException.class, () -> new MutablePackedUIntArray(-1));
+    assertThrows(IllegalArgumentException.class, () -> new MutablePackedUIntArray(1, -1));
+    assertThrows(IllegalArgumentException.class, () -> new MutablePackedUIntArray(1, 33));
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {-1, 4096})
+  void set_shouldRejectInvalidIndices(int index) {
+    MutablePackedUIntArray array = new MutablePackedUIntArray(4096);
+    assertThrows(ArrayIndexOutOfBoundsException.class, () -> array.set(index, 0));
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {1, 2, 3, 4, 5, 7, 8, 13, 16, 21, 31, 32})
+  void set_shouldReturnPreviousValue(int magnitude) {
+    int[] expected = generateUInts(4096, magnitude);
+    MutablePackedUIntArray array = new MutablePackedUIntArray(expected.length, magnitude);
+
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(0, array.set(i, expected[i]));
+    }
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], array.set(i, 0), "i=" + i);
+      assertEquals(0, array.get(i));
+    }
+  }
+
+  @Test
+  void set_shouldGrowMagnitudeWhenValueExceedsMax() {
+    int[] expected = generateUInts(4096, 3);
+    MutablePackedUIntArray array = new MutablePackedUIntArray(expected.length);
+    array.setRange(0, expected, 0, expected.length);
+    assertEquals(3, array.magnitude());
+
+    expected[1234] = 0x7FFFF;
+    array.set(1234, expected[1234]);
+
+    assertEquals(19, array.magnitude());
+    assertArrayEquals(expected, array.toIntArray());
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {1, 2, 3, 4, 5, 7, 8, 13, 16, 21, 31, 32})
+  void setRange_shouldOnlyReplaceRange(int magnitude) {
+    int[] expected = generateUInts(1000, magnitude);
+    MutablePackedUIntArray array = new MutablePackedUIntArray(expected.length, magnitude);
+    array.setRange(0, expected, 0, expected.length);
+
+    int[] replacement = generateUInts(400, magnitude);
+    array.setRange(123, replacement, 10, 300);
+    System.arraycopy(replacement, 10, expected, 123, 300);
+
+    assertArrayEquals(expected, array.toIntArray());
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {1, 2, 3, 4, 5, 7, 8, 13, 16, 21, 31, 32})
+  void fill_shouldOnlyReplaceRange(int magnitude) {
+    int[] expected = generateUInts(1000, magnitude);
+    MutablePackedUIntArray array = new MutablePackedUIntArray(expected.length);
+    array.setRange(0, expected, 0, expected.length);
+
+    int value = expected[0] >>> 1;
+    array.fill(77, 901, value);
+    Arrays.fill(expected, 77, 901, value);
+
+    assertArrayEquals(expected, array.toIntArray());
+  }
+
+  @Test
+  void toImmutable_shouldNotSeeLaterChanges() {
+    int[] uints = generateUInts(4096, 5);
+    MutablePackedUIntArray mutable = new PackedUIntArray(uints).toMutable();
+
+    PackedUIntArray before = mutable.toImmutable();
+    mutable.set(0, uints[0] ^ 1);
+    mutable.fill(1, 100, 0);
+    PackedUIntArray after = mutable.toImmutable();
+
+    assertArrayEquals(uints, before.toIntArray());
+    assertEquals(uints[0] ^ 1, after.get(0));
+    assertEquals(new PackedUIntArray(mutable.toIntArray()), after);
+  }
+
+  /**
+   * Generates a random array of uints, with at least one using every bit of the {@code magnitude}.
+   */
+  private static int[] generateUInts(int length, int magnitude) {
+    int mask = (int) ((1L << magnitude) - 1);
+
+    Random random = new Random(magnitude);
+    int[] uints = new int[length];
+    for (int i = 0; i < length; i++) {
+      uints[i] = random.nextInt() & mask;
+    }
+    uints[0] = mask;
+
+    return uints;
+  }
+}
@@ -1,11 +1,16 @@
 package me.nullicorn.ooze.level;
 
 import static me.nullicorn.ooze.level.PackedUIntArray.bytesNeeded;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import com.github.ooze.protos.PackedUIntArrayData;
 import com.google.protobuf.ByteString;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
 import nl.jqno.equalsverifier.EqualsVerifier;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -93,6 +98,78 @@ class PackedUIntArrayTests {
     }
   }
 
+  @ParameterizedTest
+  @ValueSource(ints = {1, 2, 3, 5, 7, 8, 13, 16, 21, 31, 32})
+  void get_shouldReturnCorrectValuesAcrossWordBoundaries(int magnitude) {
+    int[] expected = generateUInts(1000, magnitude);
+    PackedUIntArray actual = new PackedUIntArray(expected);
+
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], actual.get(i), "i=" + i);
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {1, 2, 3, 5, 7, 8, 13, 16, 21, 31, 32})
+  void toProto_shouldPackBitsInLittleEndianOrder(int magnitude) {
+    int[] uints = generateUInts(1000, magnitude);
+
+    // Lay out each uint's bits one after another,
+    // least-significant first.
+    BitSet expectedBits = new BitSet();
+    for (int i = 0; i < uints.length; i++) {
+      for (int bit = 0; bit < magnitude; bit++) {
+        expectedBits.set(i * magnitude + bit, (uints[i] >>> bit & 1) == 1);
+      }
+    }
+    byte[] expected = Arrays.copyOf(
+        expectedBits.toByteArray(),
+        bytesNeeded(uints.length, magnitude));
+
+    PackedUIntArrayData proto = new PackedUIntArray(uints).toProto();
+    assertArrayEquals(expected, proto.getContents().toByteArray());
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {0, 1, 2, 3, 4, 5, 7, 8, 13, 16, 21, 31, 32})
+  void toIntArray_shouldMatchConstructorValues(int magnitude) {
+    int[] expected = magnitude == 0 ? new int[1000] : generateUInts(1000, magnitude);
+    PackedUIntArray actual = new PackedUIntArray(expected);
+
+    assertArrayEquals(expected, actual.toIntArray());
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {1, 2, 3, 4, 5, 7, 8, 13, 16, 21, 31, 32})
+  void copyInto_shouldRespectOffset(int magnitude) {
+    int offset = 7;
+    int[] uints = generateUInts(1000, magnitude);
+    PackedUIntArray array = new PackedUIntArray(uints);
+
+    int[] actual = new int[offset + uints.length + offset];
+    Arrays.fill(actual, -1);
+    array.copyInto(actual, offset);
+
+    int[] expected = new int[actual.length];
+    Arrays.fill(expected, -1);
+    System.arraycopy(uints, 0, expected, offset, uints.length);
+    assertArrayEquals(expected, actual);
+
+    assertThrows(ArrayIndexOutOfBoundsException.class,
+        () -> array.copyInto(new int[uints.length], 1));
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {1, 2, 3, 4, 5, 7, 8, 13, 16, 21, 31, 32})
+  void constructor_shouldPackSlice(int magnitude) {
+    int[] uints = generateUInts(1000, magnitude);
+    PackedUIntArray actual = new PackedUIntArray(uints, 3, 500);
+
+    assertArrayEquals(Arrays.copyOfRange(uints, 3, 503), actual.toIntArray());
+    assertThrows(ArrayIndexOutOfBoundsException.class,
+        () -> new PackedUIntArray(uints, 501, 500));
+  }
+
   @Test
   void toProto_shouldMatchArray() {
     int magnitude = 18;
@@ -112,11 +189,54 @@ class PackedUIntArrayTests {
     assertEquals(actual, PackedUIntArray.fromProto(proto));
   }
 
+  @Test
+  void toProto_shouldReuseCanonicalProtoContents() {
+    PackedUIntArrayData proto = new PackedUIntArray(generateUInts(4096, 5)).toProto();
+    PackedUIntArray array = PackedUIntArray.fromProto(proto);
+
+    assertSame(proto.getContents(), array.toProto().getContents());
+  }
+
+  @Test
+  void fromProto_shouldIgnoreExtraneousTrailingBits() {
+    // 10 * 5 = 50 bits, so the last 6 bits in the last
+    // byte are unused.
+    int[] uints = generateUInts(10, 5);
+    PackedUIntArrayData proto = new PackedUIntArray(uints).toProto();
+
+    byte[] contents = proto.getContents().toByteArray();
+    contents[contents.length - 1] |= (byte) 0xFC;
+    PackedUIntArrayData dirtyProto = proto.toBuilder()
+        .setContents(ByteString.copyFrom(contents))
+        .build();
+
+    PackedUIntArray array = PackedUIntArray.fromProto(dirtyProto);
+    assertArrayEquals(uints, array.toIntArray());
+    assertEquals(proto, array.toProto());
+  }
+
   @Test
   void equals_shouldTwoArraysEqualWhenExpected() {
     EqualsVerifier
         .forClass(PackedUIntArray.class)
-        .withIgnoredFields("valueMask")
+        .withPrefabValues(ByteString.class, ByteString.copyFromUtf8("a"), ByteString.EMPTY)
+        .withIgnoredFields("valueMask", "encoded")
         .verify();
   }
+
+  /**
+   * Generates a random array of uints, with at least one using every bit of the {@code magnitude}.
+   */
+  private static int[] generateUInts(int length, int magnitude) {
+    int mask = (int) ((1L << magnitude) - 1);
+
+    Random random = new Random(magnitude);
+    int[] uints = new int[length];
+    for (int i = 0; i < length; i++) {
+      uints[i] = random.nextInt() & mask;
+    }
+    uints[0] = mask;
+
+    return uints;
+  }
 }
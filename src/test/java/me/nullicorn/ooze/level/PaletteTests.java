@@ -6,6 +6,11 @@ import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.github.ooze.protos.BlockStateData;
+import com.github.ooze.protos.PaletteData;
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -19,6 +24,26 @@ import org.junit.jupiter.params.provider.ValueSource;
  */
 class PaletteTests {
 
+  @Test
+  void fromProto_shouldNotDecodeProperties() throws IOException {
+    // Not valid NBT, so decoding would fail.
+    ByteString malformed = ByteString.copyFrom(new byte[]{99});
+    PaletteData proto = PaletteData.newBuilder()
+        .setName("ooze:undecoded")
+        .setDataVersion(2730)
+        .addStates(BlockStateData.newBuilder()
+            .setName("ooze:undecoded_state")
+            .setProperties(malformed))
+        .build();
+
+    Palette palette = Palette.fromProto(proto);
+    assertEquals(proto, palette.toProto());
+
+    // Until the properties are actually needed.
+    BlockState state = palette.get(0);
+    assertThrows(UncheckedIOException.class, () -> state.getProperties().get("age"));
+  }
+
   @Test
   void constructor_shouldRejectNulls() {
     // Name is null.
@@ -90,11 +115,58 @@ class PaletteTests {
     assertEquals(magnitude, palette.magnitude());
   }
 
+  @Test
+  void indexOf_shouldReturnFirstIndexOfState() {
+    List<BlockState> states = generateStates(100);
+    states.add(states.get(42));
+    Palette palette = new Palette("test_palette", 42, states);
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, palette.indexOf(new BlockState("test_state_" + i)), "i=" + i);
+    }
+    assertEquals(-1, palette.indexOf(new BlockState("missing_state")));
+    assertFalse(palette.contains(new BlockState("missing_state")));
+  }
+
+  @Test
+  void builder_shouldAssignIndicesInOrderOfFirstAppearance() {
+    List<BlockState> states = generateStates(10);
+    PaletteBuilder builder = new PaletteBuilder("test_palette", 42);
+
+    for (int i = 0; i < states.size(); i++) {
+      assertEquals(i, builder.add(states.get(i)));
+      assertEquals(0, builder.add(states.get(0)));
+    }
+
+    Palette palette = builder.build();
+    assertEquals(new Palette("test_palette", 42, states), palette);
+    assertEquals(7, palette.indexOf(states.get(7)));
+  }
+
+  @Test
+  void builder_shouldNotChangePalettesAlreadyBuilt() {
+    Palette base = generatePalette(5);
+    PaletteBuilder builder = new PaletteBuilder("test_palette_2", base);
+    assertEquals(3, builder.indexOf(base.get(3)));
+
+    Palette first = builder.build();
+    BlockState added = new BlockState("test_state_added");
+    assertEquals(5, builder.add(added));
+    Palette second = builder.build();
+
+    assertEquals(5, first.size());
+    assertEquals(-1, first.indexOf(added));
+    assertEquals(6, second.size());
+    assertEquals(5, second.indexOf(added));
+  }
+
   @Test
   void equals_shouldTwoPalettesEqualWhenExpected() {
     EqualsVerifier
         .forClass(Palette.class)
         .withNonnullFields("name", "states")
+        .withCachedHashCode("hash", "computeHash", Palette.empty())
+        .withIgnoredFields("indices")
         .verify();
   }
 
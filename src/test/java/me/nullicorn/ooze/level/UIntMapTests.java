@@ -0,0 +1,102 @@
+package me.nullicorn.ooze.level;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * @author Nullicorn
+ */
+class UIntMapTests {
+
+  static Stream<Supplier<UIntMap>> implementations() {
+    return Stream.of(ArrayUIntMap::new, () -> new ArrayUIntMap(0), HashUIntMap::new,
+        () -> new HashUIntMap(0));
+  }
+
+  @ParameterizedTest
+  @MethodSource("implementations")
+  void set_shouldKeepEveryEntry(Supplier<UIntMap> factory) {
+    UIntMap map = factory.get();
+
+    // Regression test: adding a new key used to overwrite
+    // whichever key was added before it.
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(-1, map.set(i, i * 3));
+      assertEquals(i + 1, map.size());
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i * 3, map.get(i), "key=" + i);
+    }
+  }
+
+  @ParameterizedTest
+  @MethodSource("implementations")
+  void set_shouldReturnAndReplacePreviousValue(Supplier<UIntMap> factory) {
+    UIntMap map = factory.get();
+    assertEquals(-1, map.set(5, 10));
+    assertEquals(10, map.set(5, 20));
+    assertEquals(20, map.get(5));
+    assertEquals(1, map.size());
+  }
+
+  @ParameterizedTest
+  @MethodSource("implementations")
+  void set_shouldRejectNegativeValues(Supplier<UIntMap> factory) {
+    UIntMap map = factory.get();
+    assertThrows(IllegalArgumentException.class, () -> map.set(0, -1));
+    assertEquals(0, map.size());
+  }
+
+  @ParameterizedTest
+  @MethodSource("implementations")
+  void get_shouldReturnNegativeOneForMissingKeys(Supplier<UIntMap> factory) {
+    UIntMap map = factory.get();
+    map.set(3, 0);
+
+    assertEquals(0, map.get(3));
+    assertEquals(-1, map.get(2));
+    assertEquals(-1, map.get(-3));
+    assertEquals(-1, map.get(Integer.MAX_VALUE));
+  }
+
+  @Test
+  void hashUIntMap_shouldMatchHashMapForRandomKeys() {
+    Random random = new Random(0xC0FFEE);
+    Map<Integer, Integer> expected = new HashMap<>();
+    UIntMap map = new HashUIntMap();
+
+    for (int i = 0; i < 20_000; i++) {
+      int key = random.nextInt();
+      int value = random.nextInt(Integer.MAX_VALUE);
+
+      Integer previous = expected.put(key, value);
+      assertEquals(previous == null ? -1 : previous, map.set(key, value));
+    }
+
+    assertEquals(expected.size(), map.size());
+    expected.forEach((key, value) -> assertEquals(value, map.get(key)));
+  }
+
+  @Test
+  void arrayUIntMap_shouldRejectNegativeKeys() {
+    UIntMap map = new ArrayUIntMap();
+    assertThrows(IllegalArgumentException.class, () -> map.set(-1, 0));
+  }
+
+  @Test
+  void forKeys_shouldPreferArrayForDenseKeys() {
+    assertInstanceOf(ArrayUIntMap.class, UIntMap.forKeys(4096, 4096));
+    assertInstanceOf(ArrayUIntMap.class, UIntMap.forKeys(10, 0));
+    assertInstanceOf(HashUIntMap.class, UIntMap.forKeys(1_000_000, 10));
+  }
+}
@@ -0,0 +1,122 @@
+package me.nullicorn.ooze.level.nbt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Set;
+import me.nullicorn.nedit.type.NBTCompound;
+import me.nullicorn.nedit.type.NBTList;
+import me.nullicorn.nedit.type.TagType;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Nullicorn
+ */
+class ImmutableCompoundTests {
+
+  @Test
+  void copyToImmutable_shouldRejectNull() {
+    assertThrows(IllegalArgumentException.class, () -> NbtHelper.copyToImmutable(null));
+    assertThrows(IllegalArgumentException.class, () -> NbtHelper.adoptAsImmutable(null));
+  }
+
+  @Test
+  void copyToImmutable_shouldEqualSource() {
+    // Arrays are only equal by identity, so leave them out.
+    NBTCompound source = generateCompound();
+    source.remove("array");
+    assertEquals(source, NbtHelper.copyToImmutable(source));
+
+    NBTCompound adopted = generateCompound();
+    adopted.remove("array");
+    assertEquals(source, NbtHelper.adoptAsImmutable(adopted));
+  }
+
+  @Test
+  void copyToImmutable_shouldReturnImmutableCompoundsAsIs() {
+    NBTCompound immutable = NbtHelper.copyToImmutable(generateCompound());
+    assertSame(immutable, NbtHelper.copyToImmutable(immutable));
+    assertSame(immutable, NbtHelper.adoptAsImmutable(immutable));
+
+    // Immutable children should be shared, not copied.
+    NBTCompound parent = new NBTCompound();
+    parent.put("child", immutable);
+    assertSame(immutable, NbtHelper.copyToImmutable(parent).get("child"));
+  }
+
+  @Test
+  void copyToImmutable_shouldMakeChildrenImmutable() {
+    NBTCompound immutable = NbtHelper.copyToImmutable(generateCompound());
+    NBTCompound nested = immutable.getCompound("nested");
+    NBTList list = immutable.getList("list");
+
+    assertThrows(UnsupportedOperationException.class, () -> immutable.put("id", "other"));
+    assertThrows(UnsupportedOperationException.class, () -> nested.put("id", "other"));
+    assertThrows(UnsupportedOperationException.class, () -> list.add("other"));
+    assertThrows(UnsupportedOperationException.class, () -> list.set(0, "other"));
+    assertThrows(UnsupportedOperationException.class, list::clear);
+    assertThrows(UnsupportedOperationException.class, () -> list.subList(0, 1).clear());
+
+    Iterator<Object> iterator = list.iterator();
+    iterator.next();
+    assertThrows(UnsupportedOperationException.class, iterator::remove);
+  }
+
+  @Test
+  void copyToImmutable_shouldCopyArraysOnlyWhenNotAdopting() {
+    NBTCompound source = generateCompound();
+    int[] array = (int[]) source.get("array");
+
+    assertNotSame(array, NbtHelper.copyToImmutable(source).get("array"));
+    assertSame(array, NbtHelper.adoptAsImmutable(source).get("array"));
+  }
+
+  @Test
+  void entrySet_shouldBeCachedReadOnlyView() {
+    NBTCompound source = generateCompound();
+    NBTCompound immutable = NbtHelper.copyToImmutable(source);
+    Set<Entry<String, Object>> entries = immutable.entrySet();
+    assertSame(entries, immutable.entrySet());
+    assertSame(immutable.keySet(), immutable.keySet());
+    assertSame(immutable.values(), immutable.values());
+
+    assertEquals(source.size(), entries.size());
+    assertEquals(source.keySet(), immutable.keySet());
+    assertTrue(entries.contains(new SimpleImmutableEntry<>("id", "minecraft:chest")));
+    assertFalse(entries.contains(new SimpleImmutableEntry<>("id", "minecraft:stone")));
+    assertFalse(entries.contains("id"));
+
+    Entry<String, Object> first = entries.iterator().next();
+    assertThrows(UnsupportedOperationException.class, () -> first.setValue("other"));
+    assertThrows(UnsupportedOperationException.class, () -> entries.remove(first));
+    assertThrows(UnsupportedOperationException.class,
+        () -> entries.add(new SimpleImmutableEntry<>("other", "value")));
+
+    Iterator<Entry<String, Object>> iterator = entries.iterator();
+    iterator.next();
+    assertThrows(UnsupportedOperationException.class, iterator::remove);
+  }
+
+  private static NBTCompound generateCompound() {
+    NBTCompound nested = new NBTCompound();
+    nested.put("id", "minecraft:stone");
+
+    NBTList list = new NBTList(TagType.STRING);
+    list.add("first");
+    list.add("second");
+
+    NBTCompound compound = new NBTCompound();
+    compound.put("id", "minecraft:chest");
+    compound.put("nested", nested);
+    compound.put("list", list);
+    compound.put("array", new int[]{1, 2, 3});
+    return compound;
+  }
+}
@@ -0,0 +1,83 @@
+package me.nullicorn.ooze.level.nbt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import me.nullicorn.nedit.type.NBTCompound;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Nullicorn
+ */
+class LazyCompoundTests {
+
+  @Test
+  void decodeLazily_shouldRejectNull() {
+    assertThrows(IllegalArgumentException.class, () -> NbtHelper.decodeLazily(null));
+    assertThrows(IllegalArgumentException.class, () -> NbtHelper.decodeLazilyToImmutable(null));
+  }
+
+  @Test
+  void decodeLazily_shouldMatchEagerDecoding() throws IOException {
+    ByteString encoded = NbtHelper.encodeToBytes(generateCompound());
+    NBTCompound lazy = NbtHelper.decodeLazily(encoded);
+
+    assertEquals(NbtHelper.decodeFromBytes(encoded), lazy);
+    assertEquals(lazy, NbtHelper.decodeFromBytes(encoded));
+    assertEquals(generateCompound().hashCode(), lazy.hashCode());
+    assertEquals("minecraft:zombie", lazy.get("id"));
+  }
+
+  @Test
+  void encodeToBytes_shouldReuseBytesUntilDecoded() throws IOException {
+    ByteString encoded = NbtHelper.encodeToBytes(generateCompound());
+    NBTCompound lazy = NbtHelper.decodeLazily(encoded);
+    assertFalse(lazy.isEmpty());
+    assertSame(encoded, NbtHelper.encodeToBytes(lazy));
+
+    // Once decoded, it could be changed at any time.
+    lazy.put("Health", 10f);
+    ByteString reencoded = NbtHelper.encodeToBytes(lazy);
+    assertNotEquals(encoded, reencoded);
+    assertEquals(10f, NbtHelper.decodeFromBytes(reencoded).get("Health"));
+  }
+
+  @Test
+  void decodeLazilyToImmutable_shouldReuseBytesAfterDecoding() throws IOException {
+    ByteString encoded = NbtHelper.encodeToBytes(generateCompound());
+    NBTCompound lazy = NbtHelper.decodeLazilyToImmutable(encoded);
+
+    assertEquals(generateCompound(), lazy);
+    assertThrows(UnsupportedOperationException.class, () -> lazy.put("Health", 10f));
+    assertSame(encoded, NbtHelper.encodeToBytes(lazy));
+    assertSame(lazy, NbtHelper.copyToImmutable(lazy));
+  }
+
+  @Test
+  void isEmpty_shouldNotNeedDecoding() {
+    // Neither of these are valid NBT, so decoding would fail.
+    assertTrue(NbtHelper.decodeLazily(ByteString.EMPTY).isEmpty());
+    assertFalse(NbtHelper.decodeLazily(ByteString.copyFrom(new byte[]{99})).isEmpty());
+  }
+
+  @Test
+  void get_shouldThrowUncheckedIfInvalid() {
+    NBTCompound lazy = NbtHelper.decodeLazily(ByteString.copyFrom(new byte[]{99}));
+    assertThrows(UncheckedIOException.class, () -> lazy.get("id"));
+  }
+
+  private static NBTCompound generateCompound() {
+    NBTCompound compound = new NBTCompound();
+    compound.put("id", "minecraft:zombie");
+    compound.put("Health", 20f);
+    compound.put("OnGround", (byte) 1);
+    return compound;
+  }
+}